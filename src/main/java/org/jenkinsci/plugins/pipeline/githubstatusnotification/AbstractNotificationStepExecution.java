@@ -0,0 +1,148 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.pipeline.githubstatusnotification;
+
+import hudson.security.ACL;
+import jenkins.model.Jenkins;
+import org.acegisecurity.Authentication;
+import org.acegisecurity.context.SecurityContext;
+import org.acegisecurity.context.SecurityContextHolder;
+import org.jenkinsci.plugins.workflow.steps.AbstractStepExecutionImpl;
+
+import javax.annotation.Nonnull;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Base execution for the notification steps, running their GitHub I/O on the bounded {@link NotificationExecutor}
+ * instead of the shared pool used by {@code AbstractSynchronousNonBlockingStepExecution}, with the same semantics
+ * otherwise: the I/O runs as the user running the step, stopping the step interrupts it and it can not survive a
+ * restart.
+ * <p>
+ * The step completes when the future returned by {@link #runAsync()} does, so an execution made of several calls
+ * chains them with {@link #supplyAsync(Callable)} rather than holding a thread while it waits for them.
+ */
+public abstract class AbstractNotificationStepExecution<T> extends AbstractStepExecutionImpl {
+
+    public static final String REJECTED = "Too many GitHub notifications in progress, try again later";
+
+    private static final long serialVersionUID = 1L;
+
+    private transient Set<Future<?>> tasks;
+    private transient volatile boolean stopped;
+
+    /**
+     * Starts the GitHub I/O of the step, the returned future completes the step
+     *
+     * @throws RejectedExecutionException if the {@link NotificationExecutor} is full
+     */
+    @Nonnull
+    protected abstract CompletableFuture<T> runAsync() throws Exception;
+
+    /**
+     * Called on the CPS thread when the {@link NotificationExecutor} is full and its policy is
+     * {@link NotificationExecutor.RejectionPolicy#QUEUE_ASYNC}
+     *
+     * @return true if the step was completed some other way, false to fail it
+     */
+    protected boolean onRejected() throws Exception {
+        return false;
+    }
+
+    /**
+     * Runs a blocking call on the {@link NotificationExecutor} as the current user, interrupting it if the step is
+     * stopped
+     *
+     * @throws RejectedExecutionException if the {@link NotificationExecutor} is full
+     */
+    @Nonnull
+    protected final <V> CompletableFuture<V> supplyAsync(@Nonnull Callable<V> body) {
+        CompletableFuture<V> result = new CompletableFuture<>();
+        if (stopped) {
+            result.cancel(false);
+            return result;
+        }
+        Authentication auth = Jenkins.getAuthentication();
+        Future<?> task = NotificationExecutor.get().submit(() -> {
+            SecurityContext previous = ACL.impersonate(auth);
+            try {
+                result.complete(body.call());
+            } catch (Throwable t) {
+                result.completeExceptionally(t);
+            } finally {
+                SecurityContextHolder.setContext(previous);
+            }
+        });
+        tasks.add(task);
+        result.whenComplete((value, t) -> tasks.remove(task));
+        return result;
+    }
+
+    @Override
+    public boolean start() throws Exception {
+        tasks = ConcurrentHashMap.newKeySet();
+        CompletableFuture<T> result;
+        try {
+            result = runAsync();
+        } catch (RejectedExecutionException e) {
+            if (NotificationExecutor.get().getRejectionPolicy() != NotificationExecutor.RejectionPolicy.QUEUE_ASYNC
+                    || !onRejected()) {
+                throw new IllegalStateException(REJECTED, e);
+            }
+            return true;
+        }
+        result.whenComplete((value, t) -> {
+            if (stopped) {
+                return;
+            }
+            if (t == null) {
+                getContext().onSuccess(value);
+            } else {
+                getContext().onFailure(t instanceof CompletionException && t.getCause() != null ? t.getCause() : t);
+            }
+        });
+        return false;
+    }
+
+    @Override
+    public void stop(@Nonnull Throwable cause) throws Exception {
+        stopped = true;
+        if (tasks != null) {
+            for (Future<?> task : tasks) {
+                task.cancel(true);
+            }
+        }
+        getContext().onFailure(cause);
+    }
+
+    @Override
+    public void onResume() {
+        getContext().onFailure(new IllegalStateException("Resume after a restart not supported"));
+    }
+}
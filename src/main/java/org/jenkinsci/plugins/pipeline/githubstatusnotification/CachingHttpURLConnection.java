@@ -0,0 +1,360 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.pipeline.githubstatusnotification;
+
+import javax.annotation.Nonnull;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Field;
+import java.net.HttpURLConnection;
+import java.net.ProtocolException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Connection answering GET requests from the {@link ConditionalResponseCache} when GitHub confirms they did not
+ * change.
+ * <p>
+ * A cached response is revalidated with an {@code If-None-Match} request, on a 304 the connection behaves as if the
+ * cached 200 had just been received, so the GitHub client never sees the 304. Every other request, and every
+ * response without an ETag, goes through the wrapped connection untouched.
+ * <p>
+ * The GitHub client sends verbs the JDK rejects, such as PATCH, by setting the {@code method} field of the
+ * connection by reflection. The method of this connection is copied to the wrapped one before the request is sent.
+ */
+final class CachingHttpURLConnection extends HttpURLConnection {
+
+    private final HttpURLConnection connection;
+    private final ConditionalResponseCache cache;
+    /**
+     * Kept here as the JDK hides it from {@link #getRequestProperty}
+     */
+    private String authorization;
+    private boolean resolved;
+    /**
+     * The response served from memory, null when the wrapped connection answers
+     */
+    private ConditionalResponseCache.CachedResponse served;
+
+    CachingHttpURLConnection(@Nonnull HttpURLConnection connection, @Nonnull ConditionalResponseCache cache) {
+        super(connection.getURL());
+        this.connection = connection;
+        this.cache = cache;
+        this.method = connection.getRequestMethod();
+    }
+
+    private void resolve() throws IOException {
+        if (resolved) {
+            return;
+        }
+        resolved = true;
+        applyRequestMethod();
+        if (!"GET".equals(method)) {
+            return;
+        }
+        String key = ConditionalResponseCache.keyOf(url.toString(), authorization, connection.getRequestProperty("Accept"));
+        ConditionalResponseCache.CachedResponse cached = cache.get(key);
+        if (cached != null) {
+            connection.setRequestProperty("If-None-Match", cached.getEtag());
+        }
+        int code = connection.getResponseCode();
+        if (code == HTTP_NOT_MODIFIED && cached != null) {
+            cache.recordHit();
+            served = cached.revalidated(connection.getHeaderFields());
+            cache.put(key, served);
+            return;
+        }
+        cache.recordMiss();
+        String etag = connection.getHeaderField("ETag");
+        if (code == HTTP_OK && etag != null) {
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            try (InputStream in = connection.getInputStream()) {
+                byte[] buffer = new byte[8192];
+                for (int read = in.read(buffer); read != -1; read = in.read(buffer)) {
+                    body.write(buffer, 0, read);
+                }
+            }
+            served = new ConditionalResponseCache.CachedResponse(etag, connection.getHeaderFields(), body.toByteArray());
+            cache.put(key, served);
+        }
+    }
+
+    @Override
+    public int getResponseCode() throws IOException {
+        resolve();
+        return served == null ? connection.getResponseCode() : HTTP_OK;
+    }
+
+    @Override
+    public String getResponseMessage() throws IOException {
+        resolve();
+        return served == null ? connection.getResponseMessage() : "OK";
+    }
+
+    @Override
+    public InputStream getInputStream() throws IOException {
+        resolve();
+        return served == null ? connection.getInputStream() : new ByteArrayInputStream(served.getBody());
+    }
+
+    @Override
+    public InputStream getErrorStream() {
+        return served == null ? connection.getErrorStream() : null;
+    }
+
+    @Override
+    public String getHeaderField(String name) {
+        if (!resolveQuietly()) {
+            return connection.getHeaderField(name);
+        }
+        List<String> values = ConditionalResponseCache.CachedResponse.findHeader(served.getHeaders(), name);
+        return values == null || values.isEmpty() ? null : values.get(values.size() - 1);
+    }
+
+    @Override
+    public Map<String, List<String>> getHeaderFields() {
+        if (!resolveQuietly()) {
+            return connection.getHeaderFields();
+        }
+        Map<String, List<String>> headers = new LinkedHashMap<>();
+        headers.put(null, Collections.singletonList("HTTP/1.1 200 OK"));
+        headers.putAll(served.getHeaders());
+        return Collections.unmodifiableMap(headers);
+    }
+
+    @Override
+    public String getHeaderFieldKey(int n) {
+        if (!resolveQuietly()) {
+            return connection.getHeaderFieldKey(n);
+        }
+        List<String[]> fields = flatHeaders();
+        return n < fields.size() ? fields.get(n)[0] : null;
+    }
+
+    @Override
+    public String getHeaderField(int n) {
+        if (!resolveQuietly()) {
+            return connection.getHeaderField(n);
+        }
+        List<String[]> fields = flatHeaders();
+        return n < fields.size() ? fields.get(n)[1] : null;
+    }
+
+    /**
+     * Header accessors can not throw, as in {@link HttpURLConnection} a failure shows as missing headers
+     *
+     * @return true if the response is served from the cache
+     */
+    private boolean resolveQuietly() {
+        try {
+            resolve();
+        } catch (IOException e) {
+            return false;
+        }
+        return served != null;
+    }
+
+    private List<String[]> flatHeaders() {
+        List<String[]> fields = new ArrayList<>();
+        for (Map.Entry<String, List<String>> header : getHeaderFields().entrySet()) {
+            for (String value : header.getValue()) {
+                fields.add(new String[]{header.getKey(), value});
+            }
+        }
+        return fields;
+    }
+
+    @Override
+    public void setRequestProperty(String key, String value) {
+        if ("Authorization".equalsIgnoreCase(key)) {
+            authorization = value;
+        }
+        connection.setRequestProperty(key, value);
+    }
+
+    @Override
+    public void addRequestProperty(String key, String value) {
+        if ("Authorization".equalsIgnoreCase(key)) {
+            authorization = value;
+        }
+        connection.addRequestProperty(key, value);
+    }
+
+    @Override
+    public String getRequestProperty(String key) {
+        return connection.getRequestProperty(key);
+    }
+
+    @Override
+    public Map<String, List<String>> getRequestProperties() {
+        return connection.getRequestProperties();
+    }
+
+    @Override
+    public void setRequestMethod(String method) throws ProtocolException {
+        connection.setRequestMethod(method);
+        this.method = method;
+    }
+
+    @Override
+    public String getRequestMethod() {
+        return method;
+    }
+
+    /**
+     * Sets a verb forced on this connection on the wrapped one as well, the same way the GitHub client does
+     */
+    private void applyRequestMethod() throws IOException {
+        if (method.equals(connection.getRequestMethod())) {
+            return;
+        }
+        try {
+            connection.setRequestMethod(method);
+        } catch (ProtocolException e) {
+            forceRequestMethod(connection, method);
+        }
+    }
+
+    private static void forceRequestMethod(HttpURLConnection connection, String method) throws IOException {
+        try {
+            Field field = HttpURLConnection.class.getDeclaredField("method");
+            field.setAccessible(true);
+            field.set(connection, method);
+            // HTTPS connections send the request through the connection they wrap
+            Field wrapped = connection.getClass().getDeclaredField("delegate");
+            wrapped.setAccessible(true);
+            Object nested = wrapped.get(connection);
+            if (nested instanceof HttpURLConnection) {
+                forceRequestMethod((HttpURLConnection) nested, method);
+            }
+        } catch (NoSuchFieldException e) {
+            // not wrapping another connection
+        } catch (IllegalAccessException | RuntimeException e) {
+            throw new IOException("Unable to send a " + method + " request", e);
+        }
+    }
+
+    @Override
+    public void setDoOutput(boolean doOutput) {
+        connection.setDoOutput(doOutput);
+    }
+
+    @Override
+    public boolean getDoOutput() {
+        return connection.getDoOutput();
+    }
+
+    @Override
+    public void setDoInput(boolean doInput) {
+        connection.setDoInput(doInput);
+    }
+
+    @Override
+    public boolean getDoInput() {
+        return connection.getDoInput();
+    }
+
+    @Override
+    public OutputStream getOutputStream() throws IOException {
+        applyRequestMethod();
+        return connection.getOutputStream();
+    }
+
+    @Override
+    public void setConnectTimeout(int timeout) {
+        connection.setConnectTimeout(timeout);
+    }
+
+    @Override
+    public int getConnectTimeout() {
+        return connection.getConnectTimeout();
+    }
+
+    @Override
+    public void setReadTimeout(int timeout) {
+        connection.setReadTimeout(timeout);
+    }
+
+    @Override
+    public int getReadTimeout() {
+        return connection.getReadTimeout();
+    }
+
+    @Override
+    public void setInstanceFollowRedirects(boolean followRedirects) {
+        connection.setInstanceFollowRedirects(followRedirects);
+    }
+
+    @Override
+    public boolean getInstanceFollowRedirects() {
+        return connection.getInstanceFollowRedirects();
+    }
+
+    @Override
+    public void setUseCaches(boolean useCaches) {
+        connection.setUseCaches(useCaches);
+    }
+
+    @Override
+    public boolean getUseCaches() {
+        return connection.getUseCaches();
+    }
+
+    @Override
+    public void setFixedLengthStreamingMode(int contentLength) {
+        connection.setFixedLengthStreamingMode(contentLength);
+    }
+
+    @Override
+    public void setFixedLengthStreamingMode(long contentLength) {
+        connection.setFixedLengthStreamingMode(contentLength);
+    }
+
+    @Override
+    public void setChunkedStreamingMode(int chunkLength) {
+        connection.setChunkedStreamingMode(chunkLength);
+    }
+
+    @Override
+    public void connect() throws IOException {
+        applyRequestMethod();
+        connection.connect();
+    }
+
+    @Override
+    public void disconnect() {
+        connection.disconnect();
+    }
+
+    @Override
+    public boolean usingProxy() {
+        return connection.usingProxy();
+    }
+}
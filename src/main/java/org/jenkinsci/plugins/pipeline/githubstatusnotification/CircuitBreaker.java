@@ -0,0 +1,199 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.pipeline.githubstatusnotification;
+
+import javax.annotation.Nonnull;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Stops calling a GitHub API endpoint that keeps failing, so builds fail fast instead of waiting for timeouts.
+ * <p>
+ * The breaker is closed while the endpoint answers. After {@link #FAILURE_THRESHOLD} consecutive transient failures,
+ * as defined by {@link RetryPolicy#isTransient} except for secondary rate limits, it opens and every call fails
+ * immediately with a {@link CircuitOpenException}. Once {@link #OPEN_SECONDS} have elapsed it becomes half open, a
+ * single trial call is let through and its outcome closes or opens the breaker again.
+ * <p>
+ * Any other answer from GitHub, including an {@link IllegalArgumentException} for a missing repository or commit,
+ * counts as a success. Other runtime failures say nothing about the endpoint and only end the trial call.
+ */
+public final class CircuitBreaker {
+
+    /**
+     * Consecutive transient failures that open the breaker
+     */
+    static final int FAILURE_THRESHOLD = Integer.getInteger(CircuitBreaker.class.getName() + ".failureThreshold", 5);
+    /**
+     * How long the breaker stays open before letting a trial call through, in seconds
+     */
+    static final long OPEN_SECONDS = Long.getLong(CircuitBreaker.class.getName() + ".openSeconds", 30);
+
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private final String endpoint;
+    private final int failureThreshold;
+    private final long openMillis;
+    private State state = State.CLOSED;
+    private int consecutiveFailures;
+    private long openedAt;
+    private boolean trialInProgress;
+    private long rejectedCount;
+
+    public CircuitBreaker(@Nonnull String endpoint) {
+        this(endpoint, FAILURE_THRESHOLD, TimeUnit.SECONDS.toMillis(OPEN_SECONDS));
+    }
+
+    CircuitBreaker(@Nonnull String endpoint, int failureThreshold, long openMillis) {
+        this.endpoint = endpoint;
+        this.failureThreshold = failureThreshold;
+        this.openMillis = openMillis;
+    }
+
+    /**
+     * Runs the given call unless the breaker is open, recording its outcome
+     */
+    public <T> T call(@Nonnull RetryPolicy.Call<T> call) throws IOException {
+        acquire();
+        try {
+            T result = call.call();
+            onSuccess();
+            return result;
+        } catch (RetryPolicy.PacedException e) {
+            // nothing was sent yet
+            onNeutral();
+            throw e;
+        } catch (RetryPolicy.RetryAfterException e) {
+            // a secondary rate limit only concerns the token, the endpoint answered
+            onSuccess();
+            throw e;
+        } catch (IOException e) {
+            if (RetryPolicy.isTransient(e)) {
+                onFailure();
+            } else {
+                // GitHub answered, so the endpoint itself is healthy
+                onSuccess();
+            }
+            throw e;
+        } catch (IllegalArgumentException e) {
+            // a missing repository, commit or credentials, GitHub answered
+            onSuccess();
+            throw e;
+        } catch (RuntimeException | Error e) {
+            // says nothing about the endpoint, only let another trial call through
+            onNeutral();
+            throw e;
+        }
+    }
+
+    private synchronized void acquire() throws CircuitOpenException {
+        if (state == State.OPEN) {
+            if (getRemainingOpenMillis() > 0) {
+                rejectedCount++;
+                throw new CircuitOpenException(this);
+            }
+            state = State.HALF_OPEN;
+        }
+        if (state == State.HALF_OPEN) {
+            if (trialInProgress) {
+                rejectedCount++;
+                throw new CircuitOpenException(this);
+            }
+            trialInProgress = true;
+        }
+    }
+
+    private synchronized void onSuccess() {
+        state = State.CLOSED;
+        consecutiveFailures = 0;
+        trialInProgress = false;
+    }
+
+    private synchronized void onNeutral() {
+        trialInProgress = false;
+    }
+
+    private synchronized void onFailure() {
+        consecutiveFailures++;
+        if (state == State.HALF_OPEN || consecutiveFailures >= failureThreshold) {
+            state = State.OPEN;
+            openedAt = System.nanoTime();
+        }
+        trialInProgress = false;
+    }
+
+    @Nonnull
+    public String getEndpoint() {
+        return endpoint;
+    }
+
+    @Nonnull
+    public synchronized State getState() {
+        if (state == State.OPEN && getRemainingOpenMillis() == 0) {
+            return State.HALF_OPEN;
+        }
+        return state;
+    }
+
+    public synchronized int getConsecutiveFailures() {
+        return consecutiveFailures;
+    }
+
+    /**
+     * @return the number of calls failed fast because the breaker was open
+     */
+    public synchronized long getRejectedCount() {
+        return rejectedCount;
+    }
+
+    /**
+     * @return how long the breaker stays open before letting a trial call through, 0 if it is not open
+     */
+    public synchronized long getRemainingOpenMillis() {
+        if (state != State.OPEN) {
+            return 0;
+        }
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - openedAt);
+        return Math.max(0, openMillis - elapsed);
+    }
+
+    /**
+     * Thrown instead of calling an endpoint whose breaker is open
+     */
+    public static class CircuitOpenException extends IOException {
+
+        private final long remainingOpenMillis;
+
+        CircuitOpenException(CircuitBreaker breaker) {
+            super("GitHub API at " + breaker.endpoint + " is failing, calls are suspended for "
+                    + breaker.getRemainingOpenMillis() + " ms");
+            this.remainingOpenMillis = breaker.getRemainingOpenMillis();
+        }
+
+        public long getRemainingOpenMillis() {
+            return remainingOpenMillis;
+        }
+    }
+}
@@ -0,0 +1,332 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.pipeline.githubstatusnotification;
+
+import hudson.Extension;
+import jenkins.model.Jenkins;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Cache of the GitHub responses carrying an ETag, so that reading them again is a conditional request.
+ * <p>
+ * GitHub answers a conditional request for an unchanged resource with a 304 that does not count against the rate
+ * limit, the cached body is then served instead. Responses are keyed by their URL and by the credentials and media
+ * type asked for, so one token never sees a response fetched with another. The memory tier is bounded by
+ * {@link #MAX_MEMORY_BYTES} and evicts the least recently used responses first. When {@link #DISK_CACHE} is enabled
+ * responses are also written under {@code JENKINS_HOME/github-notify-cache}, up to {@link #MAX_DISK_BYTES}, so they
+ * survive a restart and an eviction from memory.
+ */
+@Extension
+public class ConditionalResponseCache {
+
+    private static final Logger LOGGER = Logger.getLogger(ConditionalResponseCache.class.getName());
+
+    /**
+     * Whether responses are cached at all
+     */
+    static final boolean ENABLED = !Boolean.getBoolean(ConditionalResponseCache.class.getName() + ".disabled");
+    /**
+     * Memory used by the cached responses over which the least recently used are evicted
+     */
+    static final long MAX_MEMORY_BYTES = Long.getLong(ConditionalResponseCache.class.getName() + ".maxMemoryBytes", 4 * 1024 * 1024);
+    /**
+     * Responses bigger than this are not cached
+     */
+    static final int MAX_ENTRY_BYTES = Integer.getInteger(ConditionalResponseCache.class.getName() + ".maxEntryBytes", 256 * 1024);
+    /**
+     * Whether responses are also kept on disk
+     */
+    static final boolean DISK_CACHE = Boolean.getBoolean(ConditionalResponseCache.class.getName() + ".diskCache");
+    /**
+     * Disk used by the cached responses over which the least recently written are deleted
+     */
+    static final long MAX_DISK_BYTES = Long.getLong(ConditionalResponseCache.class.getName() + ".maxDiskBytes", 64 * 1024 * 1024);
+
+    private final Map<String, CachedResponse> responses = new LinkedHashMap<>(16, 0.75f, true);
+    private long memoryBytes;
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+
+    @Nonnull
+    public static ConditionalResponseCache get() {
+        return Jenkins.getActiveInstance().getExtensionList(ConditionalResponseCache.class).get(0);
+    }
+
+    /**
+     * @param url           the requested URL
+     * @param authorization the Authorization header of the request, may be null
+     * @param accept        the Accept header of the request, may be null
+     */
+    @Nonnull
+    static String keyOf(@Nonnull String url, @CheckForNull String authorization, @CheckForNull String accept) {
+        return GitHubClientCache.fingerprint(url, authorization, accept);
+    }
+
+    @CheckForNull
+    public CachedResponse get(@Nonnull String key) {
+        synchronized (this) {
+            CachedResponse response = responses.get(key);
+            if (response != null || !DISK_CACHE) {
+                return response;
+            }
+        }
+        CachedResponse response = readFromDisk(key);
+        if (response != null) {
+            putInMemory(key, response);
+        }
+        return response;
+    }
+
+    public void put(@Nonnull String key, @Nonnull CachedResponse response) {
+        if (response.body.length > MAX_ENTRY_BYTES) {
+            return;
+        }
+        putInMemory(key, response);
+        if (DISK_CACHE) {
+            writeToDisk(key, response);
+        }
+    }
+
+    private synchronized void putInMemory(String key, CachedResponse response) {
+        CachedResponse previous = responses.put(key, response);
+        if (previous != null) {
+            memoryBytes -= previous.body.length;
+        }
+        memoryBytes += response.body.length;
+        for (Iterator<CachedResponse> it = responses.values().iterator(); memoryBytes > MAX_MEMORY_BYTES && it.hasNext(); ) {
+            memoryBytes -= it.next().body.length;
+            it.remove();
+        }
+    }
+
+    void recordHit() {
+        hitCount.incrementAndGet();
+    }
+
+    void recordMiss() {
+        missCount.incrementAndGet();
+    }
+
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    /**
+     * @return the percentage of cacheable requests answered with a 304
+     */
+    public long getHitRatio() {
+        long hits = hitCount.get();
+        long total = hits + missCount.get();
+        return total == 0 ? 0 : hits * 100 / total;
+    }
+
+    public synchronized int size() {
+        return responses.size();
+    }
+
+    public synchronized long getMemoryBytes() {
+        return memoryBytes;
+    }
+
+    private static File getDirectory() {
+        return new File(Jenkins.getActiveInstance().getRootDir(), "github-notify-cache");
+    }
+
+    @CheckForNull
+    private static CachedResponse readFromDisk(String key) {
+        File file = new File(getDirectory(), key);
+        if (!file.isFile()) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(Files.readAllBytes(file.toPath())))) {
+            return CachedResponse.read(in);
+        } catch (IOException e) {
+            LOGGER.log(Level.FINE, "Discarding unreadable cached response " + file, e);
+            if (!file.delete()) {
+                LOGGER.log(Level.FINE, "Unable to delete {0}", file);
+            }
+            return null;
+        }
+    }
+
+    private static synchronized void writeToDisk(String key, CachedResponse response) {
+        File directory = getDirectory();
+        try {
+            Files.createDirectories(directory.toPath());
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (DataOutputStream out = new DataOutputStream(bytes)) {
+                response.write(out);
+            }
+            File tmp = new File(directory, key + ".tmp");
+            Files.write(tmp.toPath(), bytes.toByteArray());
+            Files.move(tmp.toPath(), new File(directory, key).toPath(), StandardCopyOption.REPLACE_EXISTING);
+            trimDisk(directory);
+        } catch (IOException e) {
+            LOGGER.log(Level.FINE, "Unable to write cached response " + key, e);
+        }
+    }
+
+    private static void trimDisk(File directory) {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        long total = 0;
+        for (File file : files) {
+            total += file.length();
+        }
+        if (total <= MAX_DISK_BYTES) {
+            return;
+        }
+        Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+        for (int i = 0; i < files.length && total > MAX_DISK_BYTES; i++) {
+            long length = files[i].length();
+            if (files[i].delete()) {
+                total -= length;
+            }
+        }
+    }
+
+    /**
+     * A successful response with its ETag, headers and body
+     */
+    static final class CachedResponse {
+        private final String etag;
+        /**
+         * Header names and values, the status line excluded
+         */
+        private final Map<String, List<String>> headers;
+        private final byte[] body;
+
+        CachedResponse(@Nonnull String etag, @Nonnull Map<String, List<String>> headers, @Nonnull byte[] body) {
+            this.etag = etag;
+            Map<String, List<String>> copy = new LinkedHashMap<>();
+            for (Map.Entry<String, List<String>> header : headers.entrySet()) {
+                if (header.getKey() != null) {
+                    copy.put(header.getKey(), Collections.unmodifiableList(new ArrayList<>(header.getValue())));
+                }
+            }
+            this.headers = Collections.unmodifiableMap(copy);
+            this.body = body;
+        }
+
+        /**
+         * @return this response with the headers of a 304 answering a conditional request for it, such as the rate
+         * limit ones, but still describing the cached body
+         */
+        @Nonnull
+        CachedResponse revalidated(@Nonnull Map<String, List<String>> fresh) {
+            Map<String, List<String>> merged = new LinkedHashMap<>(headers);
+            for (Map.Entry<String, List<String>> header : fresh.entrySet()) {
+                String name = header.getKey();
+                if (name == null || name.regionMatches(true, 0, "Content-", 0, 8)) {
+                    continue;
+                }
+                merged.keySet().removeIf(name::equalsIgnoreCase);
+                merged.put(name, header.getValue());
+            }
+            return new CachedResponse(etag, merged, body);
+        }
+
+        @Nonnull
+        String getEtag() {
+            return etag;
+        }
+
+        @Nonnull
+        Map<String, List<String>> getHeaders() {
+            return headers;
+        }
+
+        @Nonnull
+        byte[] getBody() {
+            return body;
+        }
+
+        @CheckForNull
+        static List<String> findHeader(@Nonnull Map<String, List<String>> headers, @Nonnull String name) {
+            for (Map.Entry<String, List<String>> header : headers.entrySet()) {
+                if (name.equalsIgnoreCase(header.getKey())) {
+                    return header.getValue();
+                }
+            }
+            return null;
+        }
+
+        void write(DataOutputStream out) throws IOException {
+            out.writeUTF(etag);
+            out.writeInt(headers.size());
+            for (Map.Entry<String, List<String>> header : headers.entrySet()) {
+                out.writeUTF(header.getKey());
+                out.writeInt(header.getValue().size());
+                for (String value : header.getValue()) {
+                    out.writeUTF(value);
+                }
+            }
+            out.writeInt(body.length);
+            out.write(body);
+        }
+
+        static CachedResponse read(DataInputStream in) throws IOException {
+            String etag = in.readUTF();
+            Map<String, List<String>> headers = new LinkedHashMap<>();
+            for (int i = in.readInt(); i > 0; i--) {
+                String name = in.readUTF();
+                List<String> values = new ArrayList<>();
+                for (int j = in.readInt(); j > 0; j--) {
+                    values.add(in.readUTF());
+                }
+                headers.put(name, values);
+            }
+            byte[] body = new byte[in.readInt()];
+            in.readFully(body);
+            return new CachedResponse(etag, headers, body);
+        }
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.pipeline.githubstatusnotification;
+
+import hudson.Extension;
+import jenkins.model.Jenkins;
+import org.kohsuke.github.GHRateLimit;
+import org.kohsuke.github.GitHub;
+import org.kohsuke.github.HttpException;
+
+import javax.annotation.Nonnull;
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Remembers which tokens GitHub recently accepted so the {@code GET /rate_limit} request validating them is not sent
+ * for every notification.
+ * <p>
+ * Only positive results are kept and they are keyed by the token fingerprint and the API endpoint. An entry must be
+ * invalidated as soon as GitHub rejects the token, so a revoked token is never hidden by the cache. The validation
+ * does not use {@code GET /user}, as github-api keeps its answer for as long as the client is cached and would never
+ * ask again.
+ */
+@Extension
+public class CredentialValidityCache {
+
+    /**
+     * How long a successful validation is trusted, in seconds
+     */
+    static final long TTL_SECONDS = Long.getLong(CredentialValidityCache.class.getName() + ".ttlSeconds", 300);
+    /**
+     * Maximum number of validations kept in memory
+     */
+    static final int MAX_SIZE = Integer.getInteger(CredentialValidityCache.class.getName() + ".maxSize", 100);
+
+    private final Map<String, Entry> validations = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+            return size() > MAX_SIZE;
+        }
+    };
+
+    @Nonnull
+    public static CredentialValidityCache get() {
+        return Jenkins.getActiveInstance().getExtensionList(CredentialValidityCache.class).get(0);
+    }
+
+    /**
+     * Checks the credentials used by the given client, asking GitHub only when there is no fresh successful
+     * validation for them
+     *
+     * @return false only when GitHub answers 401, any other failure is thrown so it can be retried instead of
+     * being taken for invalid credentials
+     */
+    public boolean isValid(@Nonnull GitHubClientCache.Key key, @Nonnull GitHub github) throws IOException {
+        String id = toId(key);
+        synchronized (this) {
+            Entry entry = validations.get(id);
+            if (entry != null) {
+                if (!entry.isExpired()) {
+                    return true;
+                }
+                validations.remove(id);
+            }
+        }
+        GHRateLimit rateLimit;
+        try {
+            // does not count against the rate limit
+            rateLimit = github.getRateLimit();
+        } catch (HttpException ex) {
+            if (ex.getResponseCode() == HttpURLConnection.HTTP_UNAUTHORIZED) {
+                return false;
+            }
+            throw ex;
+        }
+        RateLimitScheduler.get().observe(key, rateLimit);
+        synchronized (this) {
+            validations.put(id, new Entry(key.getCredentialsId()));
+        }
+        return true;
+    }
+
+    public synchronized void invalidate(@Nonnull GitHubClientCache.Key key) {
+        validations.remove(toId(key));
+    }
+
+    /**
+     * Discards every validation done for the given credentials
+     */
+    public synchronized void invalidate(@Nonnull String credentialsId) {
+        validations.values().removeIf(entry -> entry.credentialsId.equals(credentialsId));
+    }
+
+    private static String toId(GitHubClientCache.Key key) {
+        return key.getFingerprint() + "@" + key.getGitApiUrl();
+    }
+
+    private static final class Entry {
+
+        private final String credentialsId;
+        private final long expiresAt;
+
+        private Entry(String credentialsId) {
+            this.credentialsId = credentialsId;
+            this.expiresAt = System.nanoTime() + TimeUnit.SECONDS.toNanos(TTL_SECONDS);
+        }
+
+        private boolean isExpired() {
+            return System.nanoTime() - expiresAt >= 0;
+        }
+    }
+}
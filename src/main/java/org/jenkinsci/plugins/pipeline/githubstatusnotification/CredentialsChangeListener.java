@@ -0,0 +1,182 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.pipeline.githubstatusnotification;
+
+import com.cloudbees.plugins.credentials.Credentials;
+import com.cloudbees.plugins.credentials.CredentialsMatchers;
+import com.cloudbees.plugins.credentials.domains.DomainRequirement;
+import hudson.Extension;
+import hudson.XmlFile;
+import hudson.model.Item;
+import hudson.model.Saveable;
+import hudson.model.listeners.SaveableListener;
+import hudson.security.ACL;
+import jenkins.model.Jenkins;
+import jenkins.util.Timer;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import static com.cloudbees.plugins.credentials.CredentialsProvider.lookupCredentials;
+
+/**
+ * Evicts everything cached for a credentials id as soon as its secret changes in a credentials store.
+ * <p>
+ * Every time a client is handed out the fingerprint of the secret it was built with is noted, along with the item
+ * the credentials were looked up from. When a credentials store is saved, the global one or one attached to a
+ * folder, the noted credentials are looked up again, in the background and once per item, and the ones whose secret
+ * changed or that disappeared have their clients, validations and remembered failures evicted. Credentials left
+ * untouched keep their cache entries, which is what makes long time to lives safe.
+ */
+@Extension
+public class CredentialsChangeListener extends SaveableListener {
+
+    private static final Logger LOGGER = Logger.getLogger(CredentialsChangeListener.class.getName());
+
+    /**
+     * Maximum number of credentials and item pairs watched
+     */
+    static final int MAX_SIZE = Integer.getInteger(CredentialsChangeListener.class.getName() + ".maxSize", 1000);
+
+    private final Map<String, Watched> watched = new LinkedHashMap<String, Watched>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Watched> eldest) {
+            return size() > MAX_SIZE;
+        }
+    };
+    private final AtomicBoolean recheckQueued = new AtomicBoolean();
+    private volatile Future<?> recheck = CompletableFuture.completedFuture(null);
+
+    @Nonnull
+    public static CredentialsChangeListener get() {
+        return Jenkins.getActiveInstance().getExtensionList(CredentialsChangeListener.class).get(0);
+    }
+
+    /**
+     * Notes the secret in use for some credentials, as seen from an item
+     */
+    public synchronized void watch(@Nonnull String credentialsId, @CheckForNull Item context, @Nonnull String fingerprint) {
+        String itemFullName = context == null ? null : context.getFullName();
+        watched.put(credentialsId + "@" + itemFullName, new Watched(credentialsId, itemFullName, fingerprint));
+    }
+
+    @Override
+    public void onChange(Saveable o, XmlFile file) {
+        if (CredentialsIndex.isCredentialsStore(o) && recheckQueued.compareAndSet(false, true)) {
+            // stores saved meanwhile are covered by the check already queued
+            recheck = Timer.get().submit(() -> {
+                recheckQueued.set(false);
+                evictChanged();
+            });
+        }
+    }
+
+    /**
+     * Waits for the credentials to be looked up again after the last save of a store
+     */
+    void awaitRecheck() throws InterruptedException, ExecutionException {
+        recheck.get();
+    }
+
+    private void evictChanged() {
+        List<Watched> toCheck;
+        synchronized (this) {
+            toCheck = new ArrayList<>(watched.values());
+        }
+        Map<String, List<Credentials>> available = new HashMap<>();
+        for (Watched entry : toCheck) {
+            if (!entry.isUnchanged(available.computeIfAbsent(entry.itemFullName, CredentialsChangeListener::lookup))) {
+                LOGGER.log(Level.FINE, "Credentials {0} changed, evicting their cached GitHub data", entry.credentialsId);
+                evict(entry.credentialsId);
+            }
+        }
+    }
+
+    /**
+     * Forgets every client, validation, failure and App token cached for the given credentials
+     */
+    public void evict(@Nonnull String credentialsId) {
+        GitHubClientCache.get().invalidate(credentialsId);
+        CredentialValidityCache.get().invalidate(credentialsId);
+        NegativeCache.get().invalidate(credentialsId);
+        GitHubAppTokenProvider.get().invalidate(credentialsId);
+        synchronized (this) {
+            watched.values().removeIf(entry -> entry.credentialsId.equals(credentialsId));
+        }
+    }
+
+    private static final class Watched {
+        private final String credentialsId;
+        private final String itemFullName;
+        private final String fingerprint;
+
+        private Watched(String credentialsId, String itemFullName, String fingerprint) {
+            this.credentialsId = credentialsId;
+            this.itemFullName = itemFullName;
+            this.fingerprint = fingerprint;
+        }
+
+        /**
+         * @param available the credentials visible from the item, null if it no longer exists
+         * @return true if the credentials are still there with the same secret
+         */
+        private boolean isUnchanged(@CheckForNull List<Credentials> available) {
+            if (available == null) {
+                return false;
+            }
+            Credentials credentials = CredentialsMatchers.firstOrNull(available, CredentialsMatchers.withId(credentialsId));
+            return credentials != null
+                    && Objects.equals(fingerprint, GitHubStatusNotificationStep.fingerprintOf(credentials));
+        }
+    }
+
+    /**
+     * @param itemFullName the item the credentials are looked up from, null for the global ones
+     * @return the credentials visible from the item, null if it no longer exists
+     */
+    @CheckForNull
+    private static List<Credentials> lookup(@CheckForNull String itemFullName) {
+        Item item = null;
+        if (itemFullName != null) {
+            item = Jenkins.getActiveInstance().getItemByFullName(itemFullName);
+            if (item == null) {
+                return null;
+            }
+        }
+        return lookupCredentials(Credentials.class, item, ACL.SYSTEM, Collections.<DomainRequirement>emptyList());
+    }
+}
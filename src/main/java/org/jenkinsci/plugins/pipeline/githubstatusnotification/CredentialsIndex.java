@@ -0,0 +1,147 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.pipeline.githubstatusnotification;
+
+import com.cloudbees.hudson.plugins.folder.AbstractFolder;
+import com.cloudbees.hudson.plugins.folder.properties.FolderCredentialsProvider;
+import com.cloudbees.plugins.credentials.Credentials;
+import com.cloudbees.plugins.credentials.SystemCredentialsProvider;
+import com.cloudbees.plugins.credentials.common.IdCredentials;
+import com.cloudbees.plugins.credentials.domains.DomainRequirement;
+import hudson.Extension;
+import hudson.XmlFile;
+import hudson.model.Item;
+import hudson.model.Saveable;
+import hudson.model.listeners.SaveableListener;
+import hudson.security.ACL;
+import jenkins.model.Jenkins;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static com.cloudbees.plugins.credentials.CredentialsProvider.lookupCredentials;
+
+/**
+ * Index by id of the credentials visible from each item, so finding the credentials of a notification does not list
+ * and filter every credential available to the item each time.
+ * <p>
+ * The index of an item is built on first use and dropped as soon as a credentials store is saved, either the global
+ * one or one attached to a folder. As not every credentials provider reports its changes that way, indexes also
+ * expire after a while.
+ */
+@Extension
+public class CredentialsIndex extends SaveableListener {
+
+    /**
+     * How long the index of an item is used, in seconds
+     */
+    static final long TTL_SECONDS = Long.getLong(CredentialsIndex.class.getName() + ".ttlSeconds", 300);
+    /**
+     * Maximum number of items whose index is kept in memory
+     */
+    static final int MAX_SIZE = Integer.getInteger(CredentialsIndex.class.getName() + ".maxSize", 200);
+
+    private final Map<String, Index> indexes = new LinkedHashMap<String, Index>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Index> eldest) {
+            return size() > MAX_SIZE;
+        }
+    };
+
+    @Nonnull
+    public static CredentialsIndex get() {
+        return Jenkins.getActiveInstance().getExtensionList(CredentialsIndex.class).get(0);
+    }
+
+    /**
+     * @return the credentials with the given id visible from the given item, or null if there is none
+     */
+    @CheckForNull
+    public Credentials lookup(@Nonnull String credentialsId, @CheckForNull Item context) {
+        String key = context == null ? "" : context.getFullName();
+        Index index;
+        synchronized (indexes) {
+            index = indexes.get(key);
+        }
+        if (index == null || index.isExpired()) {
+            index = new Index(context);
+            synchronized (indexes) {
+                indexes.put(key, index);
+            }
+        }
+        return index.credentials.get(credentialsId);
+    }
+
+    public void invalidateAll() {
+        synchronized (indexes) {
+            indexes.clear();
+        }
+    }
+
+    @Override
+    public void onChange(Saveable o, XmlFile file) {
+        if (isCredentialsStore(o)) {
+            invalidateAll();
+        }
+    }
+
+    /**
+     * @return true if the saved object holds a credentials store, the global one or the one of a folder, so saving
+     * it may have changed some credentials
+     */
+    static boolean isCredentialsStore(Saveable o) {
+        if (o instanceof SystemCredentialsProvider) {
+            return true;
+        }
+        // the credentials of a folder are saved along with the folder
+        return o instanceof AbstractFolder
+                && ((AbstractFolder<?>) o).getProperties().get(FolderCredentialsProvider.FolderCredentialsProperty.class) != null;
+    }
+
+    private static final class Index {
+
+        private final Map<String, Credentials> credentials = new HashMap<>();
+        private final long expiresAt;
+
+        private Index(Item context) {
+            for (Credentials c : lookupCredentials(Credentials.class, context, ACL.SYSTEM,
+                    Collections.<DomainRequirement>emptyList())) {
+                if (c instanceof IdCredentials) {
+                    // the first match wins, same as a linear search would do
+                    credentials.putIfAbsent(((IdCredentials) c).getId(), c);
+                }
+            }
+            this.expiresAt = System.nanoTime() + TimeUnit.SECONDS.toNanos(TTL_SECONDS);
+        }
+
+        private boolean isExpired() {
+            return System.nanoTime() - expiresAt >= 0;
+        }
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.pipeline.githubstatusnotification;
+
+import hudson.Extension;
+import hudson.Util;
+import jenkins.model.Jenkins;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Spreads notifications among pools of interchangeable credentials, as configured globally.
+ * <p>
+ * When the credentials of a notification belong to a pool, the member with the most rate limit budget left on the
+ * endpoint is used instead, as observed by {@link RateLimitScheduler}. Members without an observed budget are
+ * considered fresh and used in turn until GitHub reports theirs. Exhausted members are skipped until their limit
+ * resets, and when all of them are the one resetting first is used.
+ */
+@Extension
+public class CredentialsPool {
+
+    private final AtomicInteger rotation = new AtomicInteger();
+    private final AtomicLong substitutionCount = new AtomicLong();
+
+    @Nonnull
+    public static CredentialsPool get() {
+        return Jenkins.getActiveInstance().getExtensionList(CredentialsPool.class).get(0);
+    }
+
+    /**
+     * @return the credentials to use in place of the given ones, the given ones if they do not belong to a pool
+     */
+    public String select(String credentialsId, @CheckForNull String gitApiUrl) {
+        if (credentialsId == null || credentialsId.isEmpty()) {
+            return credentialsId;
+        }
+        List<String> members = poolOf(credentialsId, GitHubNotificationConfiguration.get().getCredentialsPools());
+        if (members.size() < 2) {
+            return credentialsId;
+        }
+        String selected = leastLoaded(members, Util.fixEmpty(gitApiUrl), RateLimitScheduler.get(),
+                rotation.getAndIncrement());
+        if (!selected.equals(credentialsId)) {
+            substitutionCount.incrementAndGet();
+        }
+        return selected;
+    }
+
+    /**
+     * @return the number of notifications sent with other credentials of their pool
+     */
+    public long getSubstitutionCount() {
+        return substitutionCount.get();
+    }
+
+    /**
+     * @param pools one pool per line, its credentials ids separated by commas or spaces
+     * @return the members of the pool the given credentials belong to, empty if none
+     */
+    @Nonnull
+    static List<String> poolOf(@Nonnull String credentialsId, @CheckForNull String pools) {
+        if (pools == null) {
+            return Collections.emptyList();
+        }
+        for (String line : pools.split("\\r?\\n")) {
+            List<String> members = new ArrayList<>(Arrays.asList(line.trim().split("[,\\s]+")));
+            members.removeIf(String::isEmpty);
+            if (members.contains(credentialsId)) {
+                return members;
+            }
+        }
+        return Collections.emptyList();
+    }
+
+    /**
+     * @param rotation spreads the choice among members with the same budget, typically those not used yet
+     */
+    @Nonnull
+    static String leastLoaded(@Nonnull List<String> members, @CheckForNull String gitApiUrl,
+                              @Nonnull RateLimitScheduler scheduler, int rotation) {
+        int start = Math.floorMod(rotation, members.size());
+        String best = null;
+        int bestRemaining = 0;
+        String firstReset = null;
+        long firstResetAt = Long.MAX_VALUE;
+        for (int i = 0; i < members.size(); i++) {
+            String member = members.get((start + i) % members.size());
+            int remaining = scheduler.getRemaining(member, gitApiUrl);
+            if (remaining > bestRemaining) {
+                best = member;
+                bestRemaining = remaining;
+            }
+            long resetAt = scheduler.getResetAt(member, gitApiUrl);
+            if (remaining <= 0 && resetAt < firstResetAt) {
+                firstReset = member;
+                firstResetAt = resetAt;
+            }
+        }
+        if (best != null) {
+            return best;
+        }
+        return firstReset != null ? firstReset : members.get(start);
+    }
+}
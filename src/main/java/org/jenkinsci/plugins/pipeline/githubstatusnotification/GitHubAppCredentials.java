@@ -0,0 +1,116 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.pipeline.githubstatusnotification;
+
+import com.cloudbees.plugins.credentials.CredentialsScope;
+import com.cloudbees.plugins.credentials.impl.BaseStandardCredentials;
+import hudson.Extension;
+import hudson.Util;
+import hudson.util.FormValidation;
+import hudson.util.Secret;
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
+import org.kohsuke.stapler.QueryParameter;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+
+/**
+ * Credentials of a GitHub App, used to authenticate as one of its installations.
+ * <p>
+ * Installation tokens get a rate limit that grows with the organization instead of the fixed one of personal tokens.
+ * They are minted from the App private key by {@link GitHubAppTokenProvider} and renewed before they expire. The
+ * installation is either given by its id or found from the account it is installed on.
+ */
+public class GitHubAppCredentials extends BaseStandardCredentials {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String appId;
+    private final Secret privateKey;
+    private String installationId;
+    private String owner;
+
+    @DataBoundConstructor
+    public GitHubAppCredentials(CredentialsScope scope, String id, String description, String appId, Secret privateKey) {
+        super(scope, id, description);
+        this.appId = appId;
+        this.privateKey = privateKey;
+    }
+
+    @DataBoundSetter
+    public void setInstallationId(String installationId) {
+        this.installationId = Util.fixEmptyAndTrim(installationId);
+    }
+
+    @DataBoundSetter
+    public void setOwner(String owner) {
+        this.owner = Util.fixEmptyAndTrim(owner);
+    }
+
+    public String getAppId() {
+        return appId;
+    }
+
+    /**
+     * @return the App private key, in PEM format
+     */
+    public Secret getPrivateKey() {
+        return privateKey;
+    }
+
+    @CheckForNull
+    public String getInstallationId() {
+        return installationId;
+    }
+
+    /**
+     * @return the account the App is installed on, used when there is no installation id
+     */
+    @CheckForNull
+    public String getOwner() {
+        return owner;
+    }
+
+    @Extension
+    public static final class DescriptorImpl extends BaseStandardCredentialsDescriptor {
+
+        @Nonnull
+        @Override
+        public String getDisplayName() {
+            return "GitHub App";
+        }
+
+        public FormValidation doCheckAppId(@QueryParameter String value) {
+            return value == null || !value.trim().matches("\\d+")
+                    ? FormValidation.error("The App ID is the number shown on the App settings page") : FormValidation.ok();
+        }
+
+        public FormValidation doCheckOwner(@QueryParameter String value, @QueryParameter String installationId) {
+            return Util.fixEmptyAndTrim(value) == null && Util.fixEmptyAndTrim(installationId) == null
+                    ? FormValidation.error("Either the installation id or the account the App is installed on is required")
+                    : FormValidation.ok();
+        }
+    }
+}
@@ -0,0 +1,319 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.pipeline.githubstatusnotification;
+
+import hudson.Extension;
+import hudson.Util;
+import hudson.model.AsyncPeriodicWork;
+import hudson.model.TaskListener;
+import jenkins.model.Jenkins;
+import net.sf.json.JSONException;
+import net.sf.json.JSONObject;
+import org.apache.commons.io.IOUtils;
+import org.kohsuke.github.HttpException;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.Proxy;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.PrivateKey;
+import java.security.Signature;
+import java.security.spec.PKCS8EncodedKeySpec;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Mints and caches the installation tokens of {@link GitHubAppCredentials}.
+ * <p>
+ * A token is minted the first time an installation is used, by signing a short lived JWT with the App private key and
+ * exchanging it for an installation token valid one hour. From then on {@link Refresher} renews every token in use
+ * {@link #REFRESH_BEFORE_SECONDS} before it expires, so notifications do not wait for a token to be minted. Tokens
+ * of installations not used for {@link #IDLE_SECONDS} are no longer renewed and dropped.
+ */
+@Extension
+public class GitHubAppTokenProvider {
+
+    private static final Logger LOGGER = Logger.getLogger(GitHubAppTokenProvider.class.getName());
+
+    /**
+     * How long before its expiration a token is renewed in the background, in seconds
+     */
+    static final long REFRESH_BEFORE_SECONDS = Long.getLong(GitHubAppTokenProvider.class.getName() + ".refreshBeforeSeconds", 600);
+    /**
+     * Remaining validity under which a token is renewed before being used, in seconds
+     */
+    static final long MIN_VALIDITY_SECONDS = 60;
+    /**
+     * How long the token of an unused installation keeps being renewed, in seconds
+     */
+    static final long IDLE_SECONDS = Long.getLong(GitHubAppTokenProvider.class.getName() + ".idleSeconds", 7200);
+
+    private static final String ACCEPT = "application/vnd.github.machine-man-preview+json";
+
+    private final Map<String, Installation> installations = new ConcurrentHashMap<>();
+
+    @Nonnull
+    public static GitHubAppTokenProvider get() {
+        return Jenkins.getActiveInstance().getExtensionList(GitHubAppTokenProvider.class).get(0);
+    }
+
+    /**
+     * @return a valid installation token for the given App credentials, minted if needed
+     * @throws IllegalArgumentException if GitHub rejects the App credentials
+     */
+    @Nonnull
+    public String getToken(@Nonnull String credentialsId, @Nonnull GitHubAppCredentials credentials,
+                           @CheckForNull String gitApiUrl, @Nonnull Proxy proxy) throws IOException {
+        String key = credentialsId + "@" + GitHubStatusNotificationStep.fingerprintOf(credentials) + "@" + gitApiUrl;
+        Installation installation = installations.computeIfAbsent(key,
+                k -> new Installation(credentialsId, credentials, Util.fixEmpty(gitApiUrl), proxy));
+        installation.lastUsed = System.currentTimeMillis();
+        return installation.getToken(TimeUnit.SECONDS.toMillis(MIN_VALIDITY_SECONDS));
+    }
+
+    /**
+     * Forgets the tokens minted for the given credentials
+     */
+    public void invalidate(@Nonnull String credentialsId) {
+        installations.values().removeIf(installation -> installation.credentialsId.equals(credentialsId));
+    }
+
+    /**
+     * Renews the tokens about to expire and drops the ones of installations no longer used
+     */
+    void refreshExpiring() {
+        long now = System.currentTimeMillis();
+        List<Map.Entry<String, Installation>> entries = new ArrayList<>(installations.entrySet());
+        for (Map.Entry<String, Installation> entry : entries) {
+            Installation installation = entry.getValue();
+            if (now - installation.lastUsed > TimeUnit.SECONDS.toMillis(IDLE_SECONDS)) {
+                installations.remove(entry.getKey(), installation);
+                continue;
+            }
+            try {
+                installation.getToken(TimeUnit.SECONDS.toMillis(REFRESH_BEFORE_SECONDS));
+            } catch (IOException | RuntimeException e) {
+                LOGGER.log(Level.WARNING, "Unable to renew the GitHub App token of " + installation.credentialsId, e);
+            }
+        }
+    }
+
+    /**
+     * @return a JWT identifying the App, valid for nine minutes
+     */
+    @Nonnull
+    static String createJwt(@Nonnull String appId, @Nonnull String privateKeyPem) throws IOException {
+        long now = System.currentTimeMillis() / 1000;
+        JSONObject header = new JSONObject();
+        header.put("alg", "RS256");
+        header.put("typ", "JWT");
+        JSONObject payload = new JSONObject();
+        // backdated to allow for clock drift
+        payload.put("iat", now - 60);
+        payload.put("exp", now + 540);
+        payload.put("iss", appId.trim());
+        Base64.Encoder encoder = Base64.getUrlEncoder().withoutPadding();
+        String content = encoder.encodeToString(header.toString().getBytes(StandardCharsets.UTF_8)) + "."
+                + encoder.encodeToString(payload.toString().getBytes(StandardCharsets.UTF_8));
+        try {
+            Signature signature = Signature.getInstance("SHA256withRSA");
+            signature.initSign(parsePrivateKey(privateKeyPem));
+            signature.update(content.getBytes(StandardCharsets.UTF_8));
+            return content + "." + encoder.encodeToString(signature.sign());
+        } catch (GeneralSecurityException e) {
+            throw new IllegalArgumentException("Invalid GitHub App private key", e);
+        }
+    }
+
+    /**
+     * Reads a PKCS#8 key or a PKCS#1 one, as GitHub generates them, which is then wrapped into PKCS#8
+     */
+    @Nonnull
+    static PrivateKey parsePrivateKey(@Nonnull String pem) throws GeneralSecurityException {
+        boolean pkcs1 = pem.contains("BEGIN RSA PRIVATE KEY");
+        String base64 = pem.replaceAll("-----(BEGIN|END)[A-Z ]*-----", "").replaceAll("\\s", "");
+        byte[] der;
+        try {
+            der = Base64.getDecoder().decode(base64);
+        } catch (IllegalArgumentException e) {
+            throw new GeneralSecurityException("The private key is not in PEM format", e);
+        }
+        if (pkcs1) {
+            der = pkcs1ToPkcs8(der);
+        }
+        return KeyFactory.getInstance("RSA").generatePrivate(new PKCS8EncodedKeySpec(der));
+    }
+
+    private static byte[] pkcs1ToPkcs8(byte[] pkcs1) {
+        byte[] version = {0x02, 0x01, 0x00};
+        // rsaEncryption OID with NULL parameters
+        byte[] algorithm = {0x30, 0x0d, 0x06, 0x09, 0x2a, (byte) 0x86, 0x48, (byte) 0x86, (byte) 0xf7, 0x0d, 0x01,
+                0x01, 0x01, 0x05, 0x00};
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        body.write(version, 0, version.length);
+        body.write(algorithm, 0, algorithm.length);
+        writeDerHeader(body, 0x04, pkcs1.length);
+        body.write(pkcs1, 0, pkcs1.length);
+        ByteArrayOutputStream sequence = new ByteArrayOutputStream();
+        writeDerHeader(sequence, 0x30, body.size());
+        byte[] bytes = body.toByteArray();
+        sequence.write(bytes, 0, bytes.length);
+        return sequence.toByteArray();
+    }
+
+    private static void writeDerHeader(ByteArrayOutputStream out, int tag, int length) {
+        out.write(tag);
+        if (length < 0x80) {
+            out.write(length);
+        } else if (length < 0x100) {
+            out.write(0x81);
+            out.write(length);
+        } else if (length < 0x10000) {
+            out.write(0x82);
+            out.write(length >> 8);
+            out.write(length);
+        } else {
+            out.write(0x83);
+            out.write(length >> 16);
+            out.write(length >> 8);
+            out.write(length);
+        }
+    }
+
+    private static final class Installation {
+
+        private final String credentialsId;
+        private final GitHubAppCredentials credentials;
+        private final String gitApiUrl;
+        private final Proxy proxy;
+        private volatile long lastUsed;
+        private String installationId;
+        private String token;
+        private long expiresAt;
+
+        private Installation(String credentialsId, GitHubAppCredentials credentials, String gitApiUrl, Proxy proxy) {
+            this.credentialsId = credentialsId;
+            this.credentials = credentials;
+            this.gitApiUrl = gitApiUrl;
+            this.proxy = proxy;
+            this.installationId = credentials.getInstallationId();
+        }
+
+        /**
+         * @param minValidityMillis how long the returned token must still be valid, a new one is minted otherwise
+         */
+        private synchronized String getToken(long minValidityMillis) throws IOException {
+            if (token == null || expiresAt - System.currentTimeMillis() < minValidityMillis) {
+                mint();
+            }
+            return token;
+        }
+
+        private void mint() throws IOException {
+            String jwt = createJwt(credentials.getAppId(), credentials.getPrivateKey().getPlainText());
+            if (installationId == null) {
+                if (credentials.getOwner() == null) {
+                    throw new IllegalArgumentException(GitHubStatusNotificationStep.CREDENTIALS_INVALID);
+                }
+                installationId = request("GET", "/users/" + credentials.getOwner() + "/installation", jwt).getString("id");
+            }
+            JSONObject response = request("POST", "/app/installations/" + installationId + "/access_tokens", jwt);
+            try {
+                expiresAt = Instant.parse(response.getString("expires_at")).toEpochMilli();
+            } catch (DateTimeParseException | JSONException e) {
+                throw new IOException("Unexpected GitHub App token response", e);
+            }
+            token = response.getString("token");
+        }
+
+        private JSONObject request(String method, String path, String jwt) throws IOException {
+            String base = gitApiUrl == null ? GitHubStatusNotificationStep.GITHUB_API_URL : gitApiUrl;
+            while (base.endsWith("/")) {
+                base = base.substring(0, base.length() - 1);
+            }
+            URL url = new URL(base + path);
+            // signed with a new JWT every time, the responses are never asked for again
+            HttpURLConnection connection = new KeepAliveHttpConnector(proxy).openUncached(url);
+            connection.setRequestMethod(method);
+            connection.setRequestProperty("Authorization", "Bearer " + jwt);
+            connection.setRequestProperty("Accept", ACCEPT);
+            if ("POST".equals(method)) {
+                connection.setDoOutput(true);
+                try (OutputStream out = connection.getOutputStream()) {
+                    out.write("{}".getBytes(StandardCharsets.UTF_8));
+                }
+            }
+            int code = connection.getResponseCode();
+            if (code == HttpURLConnection.HTTP_UNAUTHORIZED || code == HttpURLConnection.HTTP_NOT_FOUND) {
+                throw new IllegalArgumentException(GitHubStatusNotificationStep.CREDENTIALS_INVALID);
+            }
+            if (code / 100 != 2) {
+                throw new HttpException("Unable to mint a GitHub App installation token", code,
+                        connection.getResponseMessage(), url.toString());
+            }
+            try (InputStream in = connection.getInputStream()) {
+                return JSONObject.fromObject(IOUtils.toString(in, StandardCharsets.UTF_8.name()));
+            } catch (JSONException e) {
+                throw new IOException("Unexpected GitHub App response", e);
+            }
+        }
+    }
+
+    /**
+     * Renews the installation tokens about to expire
+     */
+    @Extension
+    public static final class Refresher extends AsyncPeriodicWork {
+
+        public Refresher() {
+            super("GitHub App token refresh");
+        }
+
+        @Override
+        public long getRecurrencePeriod() {
+            return MIN;
+        }
+
+        @Override
+        protected void execute(TaskListener listener) {
+            GitHubAppTokenProvider.get().refreshExpiring();
+        }
+    }
+}
@@ -0,0 +1,258 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.pipeline.githubstatusnotification;
+
+import hudson.Extension;
+import jenkins.model.Jenkins;
+import org.kohsuke.github.GitHub;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import java.io.IOException;
+import java.net.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Process wide cache of already built {@link GitHub} clients.
+ * <p>
+ * Entries are keyed by the credentials id, a fingerprint of the secret they hold, the API endpoint and the proxy
+ * in use, so a client is never shared between different tokens or networks. The cache is bounded, least recently
+ * used entries are evicted first and every entry expires after a configurable time to live.
+ */
+@Extension
+public class GitHubClientCache {
+
+    /**
+     * How long a built client is reused, in seconds
+     */
+    static final long TTL_SECONDS = Long.getLong(GitHubClientCache.class.getName() + ".ttlSeconds", 3600);
+    /**
+     * Maximum number of clients kept in memory
+     */
+    static final int MAX_SIZE = Integer.getInteger(GitHubClientCache.class.getName() + ".maxSize", 100);
+
+    private final Map<Key, Entry> clients = new LinkedHashMap<Key, Entry>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Key, Entry> eldest) {
+            return size() > MAX_SIZE;
+        }
+    };
+
+    @Nonnull
+    public static GitHubClientCache get() {
+        return Jenkins.getActiveInstance().getExtensionList(GitHubClientCache.class).get(0);
+    }
+
+    @CheckForNull
+    public synchronized GitHub get(@Nonnull Key key) {
+        Entry entry = clients.get(key);
+        if (entry == null) {
+            return null;
+        }
+        if (entry.isExpired()) {
+            clients.remove(key);
+            return null;
+        }
+        return entry.github;
+    }
+
+    /**
+     * Stores a client, discarding any client built from a previous version of the same credentials
+     */
+    public synchronized void put(@Nonnull Key key, @Nonnull GitHub github) {
+        for (Iterator<Key> it = clients.keySet().iterator(); it.hasNext(); ) {
+            Key existing = it.next();
+            if (existing.credentialsId.equals(key.credentialsId) && !existing.fingerprint.equals(key.fingerprint)) {
+                it.remove();
+            }
+        }
+        clients.put(key, new Entry(github));
+    }
+
+    /**
+     * Discards every client built from the given credentials
+     */
+    public synchronized void invalidate(@Nonnull String credentialsId) {
+        clients.keySet().removeIf(key -> key.credentialsId.equals(credentialsId));
+    }
+
+    public synchronized void invalidate(@Nonnull Key key) {
+        clients.remove(key);
+    }
+
+    public synchronized int size() {
+        return clients.size();
+    }
+
+    /**
+     * Computes a non reversible fingerprint of the given secret values so they can be used as a cache key without
+     * keeping them in plain text
+     */
+    @Nonnull
+    static String fingerprint(@Nonnull String... values) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            for (String value : values) {
+                if (value != null) {
+                    digest.update(value.getBytes(StandardCharsets.UTF_8));
+                }
+                digest.update((byte) 0);
+            }
+            StringBuilder result = new StringBuilder();
+            for (byte b : digest.digest()) {
+                result.append(String.format("%02x", b));
+            }
+            return result.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    public static final class Key {
+
+        private final String credentialsId;
+        private final String fingerprint;
+        private final String gitApiUrl;
+        private final Proxy proxy;
+
+        public Key(@Nonnull String credentialsId, @Nonnull String fingerprint, String gitApiUrl, @Nonnull Proxy proxy) {
+            this.credentialsId = credentialsId;
+            this.fingerprint = fingerprint;
+            this.gitApiUrl = gitApiUrl;
+            this.proxy = proxy;
+        }
+
+        public String getCredentialsId() {
+            return credentialsId;
+        }
+
+        public String getFingerprint() {
+            return fingerprint;
+        }
+
+        public String getGitApiUrl() {
+            return gitApiUrl;
+        }
+
+        @Nonnull
+        public Proxy getProxy() {
+            return proxy;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            Key key = (Key) o;
+            return credentialsId.equals(key.credentialsId) && fingerprint.equals(key.fingerprint)
+                    && Objects.equals(gitApiUrl, key.gitApiUrl) && proxy.equals(key.proxy);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(credentialsId, fingerprint, gitApiUrl, proxy);
+        }
+    }
+
+    /**
+     * A client along with the key identifying its credentials, passed around together so the key is known even once
+     * the client is no longer cached
+     */
+    public static final class Client {
+
+        private final GitHub github;
+        private final Key key;
+        private final Key credentialsKey;
+        private final String token;
+
+        public Client(@Nonnull GitHub github, @Nonnull Key key, @Nonnull Key credentialsKey, @Nonnull String token) {
+            this.github = github;
+            this.key = key;
+            this.credentialsKey = credentialsKey;
+            this.token = token;
+        }
+
+        @Nonnull
+        public GitHub getGitHub() {
+            return github;
+        }
+
+        @Nonnull
+        public Key getKey() {
+            return key;
+        }
+
+        /**
+         * @return the key built from the fingerprint of the credentials themselves, the same as {@link #getKey()}
+         * except for GitHub App credentials, whose key is built from the current installation token
+         */
+        @Nonnull
+        public Key getCredentialsKey() {
+            return credentialsKey;
+        }
+
+        /**
+         * @return a GraphQL client using the same token, endpoint and proxy
+         */
+        @Nonnull
+        public GitHubGraphQL getGraphQL() throws IOException {
+            return new GitHubGraphQL(GitHubGraphQL.endpointFor(key.getGitApiUrl()), "token " + token,
+                    new KeepAliveHttpConnector(key.getProxy()));
+        }
+
+        /**
+         * @return a statuses client using the same token, endpoint and proxy
+         */
+        @Nonnull
+        public GitHubStatusPoster getStatusPoster() {
+            return new GitHubStatusPoster(key.getGitApiUrl(), "token " + token, new KeepAliveHttpConnector(key.getProxy()));
+        }
+    }
+
+    private static final class Entry {
+
+        private final GitHub github;
+        private final long expiresAt;
+
+        private Entry(GitHub github) {
+            this.github = github;
+            this.expiresAt = System.nanoTime() + TimeUnit.SECONDS.toNanos(TTL_SECONDS);
+        }
+
+        private boolean isExpired() {
+            return System.nanoTime() - expiresAt >= 0;
+        }
+    }
+}
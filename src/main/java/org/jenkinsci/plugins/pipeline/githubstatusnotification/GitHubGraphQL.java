@@ -0,0 +1,190 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.pipeline.githubstatusnotification;
+
+import net.sf.json.JSONArray;
+import net.sf.json.JSONException;
+import net.sf.json.JSONObject;
+import org.apache.commons.io.IOUtils;
+import org.kohsuke.github.HttpConnector;
+import org.kohsuke.github.HttpException;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Minimal client of the GitHub GraphQL API, checking a repository and a commit with a single request.
+ * <p>
+ * The REST validation needs one request for the repository and another one downloading the whole commit, with its
+ * files and patches. The GraphQL query asks only for the viewer permission on the repository and the full sha of the
+ * commit, both answered in one small response.
+ */
+public final class GitHubGraphQL {
+
+    private static final String VALIDATION_QUERY = "query($owner: String!, $name: String!, $expression: String!) {"
+            + " repository(owner: $owner, name: $name) {"
+            + " viewerPermission"
+            + " object(expression: $expression) { ... on Commit { oid } }"
+            + " } }";
+
+    private final URL endpoint;
+    private final String authorization;
+    private final HttpConnector connector;
+
+    /**
+     * @param endpoint      the GraphQL endpoint, see {@link #endpointFor(String)}
+     * @param authorization the value of the Authorization header
+     */
+    public GitHubGraphQL(@Nonnull URL endpoint, @Nonnull String authorization, @Nonnull HttpConnector connector) {
+        this.endpoint = endpoint;
+        this.authorization = authorization;
+        this.connector = connector;
+    }
+
+    /**
+     * @param gitApiUrl the REST API endpoint, null for github.com
+     * @return the GraphQL endpoint of the same server, {@code /api/v3} becoming {@code /api/graphql} on GitHub
+     * Enterprise
+     */
+    @Nonnull
+    public static URL endpointFor(@CheckForNull String gitApiUrl) throws IOException {
+        String base = gitApiUrl == null || gitApiUrl.isEmpty() ? GitHubStatusNotificationStep.GITHUB_API_URL : gitApiUrl;
+        while (base.endsWith("/")) {
+            base = base.substring(0, base.length() - 1);
+        }
+        if (base.endsWith("/v3")) {
+            base = base.substring(0, base.length() - "/v3".length());
+        }
+        return new URL(base + "/graphql");
+    }
+
+    /**
+     * Checks a repository and commit in one request
+     *
+     * @param expression a full or abbreviated sha, or any other git revision expression
+     * @throws HttpException if GitHub answers with an error status, 401 if the credentials are rejected
+     */
+    @Nonnull
+    public Validation validate(@Nonnull String owner, @Nonnull String name, @Nonnull String expression) throws IOException {
+        JSONObject variables = new JSONObject();
+        variables.put("owner", owner);
+        variables.put("name", name);
+        variables.put("expression", expression);
+        JSONObject request = new JSONObject();
+        request.put("query", VALIDATION_QUERY);
+        request.put("variables", variables);
+
+        JSONObject response = post(request);
+        JSONObject data = response.optJSONObject("data");
+        JSONObject repository = data == null || data.isNullObject() ? null : data.optJSONObject("repository");
+        if (repository == null || repository.isNullObject()) {
+            JSONArray errors = response.optJSONArray("errors");
+            if (errors != null && !errors.isEmpty() && !isNotFound(errors)) {
+                throw new IOException("GitHub GraphQL query failed: " + errors);
+            }
+            return new Validation(false, null, null);
+        }
+        JSONObject object = repository.optJSONObject("object");
+        String oid = object == null || object.isNullObject() ? null : object.optString("oid", null);
+        return new Validation(true, repository.optString("viewerPermission", null), oid);
+    }
+
+    private static boolean isNotFound(JSONArray errors) {
+        for (Object error : errors) {
+            if (!(error instanceof JSONObject) || !"NOT_FOUND".equals(((JSONObject) error).optString("type"))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private JSONObject post(JSONObject request) throws IOException {
+        HttpURLConnection connection = connector.connect(endpoint);
+        connection.setRequestMethod("POST");
+        connection.setDoOutput(true);
+        connection.setRequestProperty("Authorization", authorization);
+        connection.setRequestProperty("Content-Type", "application/json");
+        connection.setRequestProperty("Accept", "application/json");
+        try (OutputStream out = connection.getOutputStream()) {
+            out.write(request.toString().getBytes(StandardCharsets.UTF_8));
+        }
+        int code = connection.getResponseCode();
+        if (code != HttpURLConnection.HTTP_OK) {
+            String body = null;
+            try (InputStream error = connection.getErrorStream()) {
+                if (error != null) {
+                    body = IOUtils.toString(error, StandardCharsets.UTF_8.name());
+                }
+            }
+            throw new HttpException(body == null ? "GitHub GraphQL request failed" : body, code,
+                    connection.getResponseMessage(), endpoint.toString());
+        }
+        try (InputStream in = connection.getInputStream()) {
+            return JSONObject.fromObject(IOUtils.toString(in, StandardCharsets.UTF_8.name()));
+        } catch (JSONException e) {
+            throw new IOException("Unexpected GitHub GraphQL response", e);
+        }
+    }
+
+    /**
+     * What GitHub knows about a repository and commit
+     */
+    public static final class Validation {
+        private final boolean repositoryFound;
+        private final String viewerPermission;
+        private final String commitSha;
+
+        Validation(boolean repositoryFound, @CheckForNull String viewerPermission, @CheckForNull String commitSha) {
+            this.repositoryFound = repositoryFound;
+            this.viewerPermission = viewerPermission;
+            this.commitSha = commitSha;
+        }
+
+        public boolean isRepositoryFound() {
+            return repositoryFound;
+        }
+
+        /**
+         * @return ADMIN, MAINTAIN, WRITE, TRIAGE or READ, null if the repository was not found
+         */
+        @CheckForNull
+        public String getViewerPermission() {
+            return viewerPermission;
+        }
+
+        /**
+         * @return the full sha of the commit, null if it was not found
+         */
+        @CheckForNull
+        public String getCommitSha() {
+            return commitSha;
+        }
+    }
+}
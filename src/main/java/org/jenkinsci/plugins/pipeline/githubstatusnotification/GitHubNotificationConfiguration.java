@@ -0,0 +1,211 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.pipeline.githubstatusnotification;
+
+import hudson.Extension;
+import hudson.Util;
+import jenkins.model.GlobalConfiguration;
+import net.sf.json.JSONObject;
+import org.kohsuke.stapler.DataBoundSetter;
+import org.kohsuke.stapler.StaplerRequest;
+
+import javax.annotation.Nonnull;
+import java.util.List;
+
+/**
+ * Global defaults for the {@code githubNotify} step, used whenever a step does not specify its own value.
+ */
+@Extension
+public class GitHubNotificationConfiguration extends GlobalConfiguration {
+
+    /**
+     * Whether the commit is fetched from GitHub to check it exists before sending its status
+     */
+    private boolean verifyCommit = true;
+    /**
+     * How many times a notification failing for a transient reason is retried
+     */
+    private int maxRetries = 3;
+    /**
+     * Time after which a failing notification is no longer retried, in seconds
+     */
+    private long retryDeadlineSeconds = 120;
+    /**
+     * Whether notifications for an endpoint whose circuit breaker is open are queued for background delivery instead
+     * of failing the step
+     */
+    private boolean queueWhileCircuitOpen;
+    /**
+     * Whether repository and commit are checked with a single GraphQL request instead of several REST ones
+     */
+    private boolean graphQLValidation;
+    /**
+     * Pools of interchangeable credentials, one per line, see {@link CredentialsPool}
+     */
+    private String credentialsPools;
+    /**
+     * Statuses sent per minute and token once the burst is used, 0 to only slow down once GitHub asks to, see
+     * {@link WriteRateLimiter}
+     */
+    private int statusRatePerMinute;
+    /**
+     * Statuses that can be sent at once after a quiet period, when statuses are paced
+     */
+    private int statusBurst = 10;
+
+    public GitHubNotificationConfiguration() {
+        load();
+    }
+
+    @Nonnull
+    public static GitHubNotificationConfiguration get() {
+        return GlobalConfiguration.all().get(GitHubNotificationConfiguration.class);
+    }
+
+    @Override
+    public boolean configure(StaplerRequest req, JSONObject json) throws FormException {
+        req.bindJSON(this, json);
+        save();
+        return true;
+    }
+
+    public boolean isVerifyCommit() {
+        return verifyCommit;
+    }
+
+    @DataBoundSetter
+    public void setVerifyCommit(boolean verifyCommit) {
+        this.verifyCommit = verifyCommit;
+    }
+
+    /**
+     * Exposes the asynchronous delivery statistics to the configuration page
+     */
+    public NotificationDispatcher getDispatcher() {
+        return NotificationDispatcher.get();
+    }
+
+    /**
+     * Exposes the notification thread pool statistics to the configuration page
+     */
+    public NotificationExecutor getExecutor() {
+        return NotificationExecutor.get();
+    }
+
+    /**
+     * Exposes the response cache statistics to the configuration page
+     */
+    public ConditionalResponseCache getResponseCache() {
+        return ConditionalResponseCache.get();
+    }
+
+    public int getMaxRetries() {
+        return maxRetries;
+    }
+
+    @DataBoundSetter
+    public void setMaxRetries(int maxRetries) {
+        this.maxRetries = Math.max(0, maxRetries);
+    }
+
+    public long getRetryDeadlineSeconds() {
+        return retryDeadlineSeconds;
+    }
+
+    @DataBoundSetter
+    public void setRetryDeadlineSeconds(long retryDeadlineSeconds) {
+        this.retryDeadlineSeconds = Math.max(0, retryDeadlineSeconds);
+    }
+
+    public boolean isQueueWhileCircuitOpen() {
+        return queueWhileCircuitOpen;
+    }
+
+    @DataBoundSetter
+    public void setQueueWhileCircuitOpen(boolean queueWhileCircuitOpen) {
+        this.queueWhileCircuitOpen = queueWhileCircuitOpen;
+    }
+
+    public boolean isGraphQLValidation() {
+        return graphQLValidation;
+    }
+
+    @DataBoundSetter
+    public void setGraphQLValidation(boolean graphQLValidation) {
+        this.graphQLValidation = graphQLValidation;
+    }
+
+    public String getCredentialsPools() {
+        return credentialsPools;
+    }
+
+    @DataBoundSetter
+    public void setCredentialsPools(String credentialsPools) {
+        this.credentialsPools = Util.fixEmptyAndTrim(credentialsPools);
+    }
+
+    public int getStatusRatePerMinute() {
+        return statusRatePerMinute;
+    }
+
+    @DataBoundSetter
+    public void setStatusRatePerMinute(int statusRatePerMinute) {
+        this.statusRatePerMinute = Math.max(0, statusRatePerMinute);
+    }
+
+    public int getStatusBurst() {
+        return statusBurst;
+    }
+
+    @DataBoundSetter
+    public void setStatusBurst(int statusBurst) {
+        this.statusBurst = Math.max(1, statusBurst);
+    }
+
+    /**
+     * Exposes the credentials pool statistics to the configuration page
+     */
+    public CredentialsPool getCredentialsPool() {
+        return CredentialsPool.get();
+    }
+
+    /**
+     * Exposes the status pacing statistics to the configuration page
+     */
+    public WriteRateLimiter getWriteRateLimiter() {
+        return WriteRateLimiter.get();
+    }
+
+    /**
+     * Exposes the state of the circuit breakers to the configuration page
+     */
+    public List<CircuitBreaker> getCircuitBreakers() {
+        return CircuitBreakerRegistry.get().getBreakers();
+    }
+
+    @Override
+    public String getDisplayName() {
+        return "GitHub Notify Step";
+    }
+}
@@ -0,0 +1,183 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.pipeline.githubstatusnotification;
+
+import org.kohsuke.github.GHCommitState;
+
+import javax.annotation.Nonnull;
+import java.io.Serializable;
+
+/**
+ * A commit status ready to be sent to GitHub, with every value already inferred from the build that produced it.
+ * <p>
+ * Unlike the step itself it does not depend on the run, so it can be delivered once the step has returned.
+ */
+public final class GitHubStatusNotification implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * The full name of the item whose credentials are used to connect to GitHub
+     */
+    private final String itemFullName;
+    private final String credentialsId;
+    private final String gitApiUrl;
+    private final String account;
+    private final String repo;
+    private final String sha;
+    private final GHCommitState status;
+    private final String description;
+    private final String context;
+    private final String targetUrl;
+    private final boolean verifyCommit;
+    /**
+     * When the notification was accepted, in milliseconds since the epoch
+     */
+    private final long createdAt;
+    /**
+     * Whether the status is not posted when identical to the last one posted, see {@link StatusLedger}
+     */
+    private final boolean skipIfUnchanged;
+
+    public GitHubStatusNotification(@Nonnull String itemFullName, String credentialsId, String gitApiUrl, String account,
+                                    String repo, String sha, GHCommitState status, String description, String context,
+                                    String targetUrl, boolean verifyCommit) {
+        this(itemFullName, credentialsId, gitApiUrl, account, repo, sha, status, description, context, targetUrl,
+                verifyCommit, System.currentTimeMillis());
+    }
+
+    public GitHubStatusNotification(@Nonnull String itemFullName, String credentialsId, String gitApiUrl, String account,
+                                    String repo, String sha, GHCommitState status, String description, String context,
+                                    String targetUrl, boolean verifyCommit, long createdAt) {
+        this(itemFullName, credentialsId, gitApiUrl, account, repo, sha, status, description, context, targetUrl,
+                verifyCommit, createdAt, false);
+    }
+
+    public GitHubStatusNotification(@Nonnull String itemFullName, String credentialsId, String gitApiUrl, String account,
+                                    String repo, String sha, GHCommitState status, String description, String context,
+                                    String targetUrl, boolean verifyCommit, long createdAt, boolean skipIfUnchanged) {
+        this.itemFullName = itemFullName;
+        this.credentialsId = credentialsId;
+        this.gitApiUrl = gitApiUrl;
+        this.account = account;
+        this.repo = repo;
+        this.sha = sha;
+        this.status = status;
+        this.description = description;
+        this.context = context;
+        this.targetUrl = targetUrl;
+        this.verifyCommit = verifyCommit;
+        this.createdAt = createdAt;
+        this.skipIfUnchanged = skipIfUnchanged;
+    }
+
+    @Nonnull
+    public String getItemFullName() {
+        return itemFullName;
+    }
+
+    public String getCredentialsId() {
+        return credentialsId;
+    }
+
+    public String getGitApiUrl() {
+        return gitApiUrl;
+    }
+
+    public String getAccount() {
+        return account;
+    }
+
+    public String getRepo() {
+        return repo;
+    }
+
+    public String getSha() {
+        return sha;
+    }
+
+    public GHCommitState getStatus() {
+        return status;
+    }
+
+    public String getDescription() {
+        return description;
+    }
+
+    public String getContext() {
+        return context;
+    }
+
+    public String getTargetUrl() {
+        return targetUrl;
+    }
+
+    public boolean isVerifyCommit() {
+        return verifyCommit;
+    }
+
+    public long getCreatedAt() {
+        return createdAt;
+    }
+
+    public boolean isSkipIfUnchanged() {
+        return skipIfUnchanged;
+    }
+
+    /**
+     * @return this notification, not posted when identical to the last one posted
+     */
+    @Nonnull
+    public GitHubStatusNotification skippingIfUnchanged() {
+        return new GitHubStatusNotification(itemFullName, credentialsId, gitApiUrl, account, repo, sha, status,
+                description, context, targetUrl, verifyCommit, createdAt, true);
+    }
+
+    /**
+     * @param sha the full sha of the commit, already checked to exist
+     * @return this notification for the given commit, without verifying it again
+     */
+    @Nonnull
+    public GitHubStatusNotification verified(@Nonnull String sha) {
+        return new GitHubStatusNotification(itemFullName, credentialsId, gitApiUrl, account, repo, sha, status,
+                description, context, targetUrl, false, createdAt, skipIfUnchanged);
+    }
+
+    /**
+     * Pending statuses only report progress and are soon replaced, so they are the first to be dropped when GitHub
+     * resources are scarce
+     */
+    public boolean isLowPriority() {
+        return status == GHCommitState.PENDING;
+    }
+
+    @Override
+    public String toString() {
+        return "GitHubStatusNotification{" + getRepoFullName() + "@" + sha + ", context=" + context + ", status=" + status + "}";
+    }
+
+    private String getRepoFullName() {
+        return account == null ? repo : account + "/" + repo;
+    }
+}
@@ -0,0 +1,340 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.pipeline.githubstatusnotification;
+
+import hudson.Extension;
+import hudson.Util;
+import hudson.model.Item;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import hudson.util.ListBoxModel;
+import jenkins.model.Jenkins;
+import net.sf.json.JSONObject;
+import org.jenkinsci.plugins.workflow.steps.AbstractStepDescriptorImpl;
+import org.jenkinsci.plugins.workflow.steps.AbstractStepImpl;
+import org.jenkinsci.plugins.workflow.steps.Step;
+import org.jenkinsci.plugins.workflow.steps.StepContextParameter;
+import org.kohsuke.github.GHRepository;
+import org.kohsuke.stapler.AncestorInPath;
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
+import org.kohsuke.stapler.StaplerRequest;
+
+import javax.annotation.Nonnull;
+import javax.inject.Inject;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.stream.Collectors;
+
+/**
+ * A pipeline step that sends many commit statuses of the same repository at once.
+ * <p>
+ * Credentials, client and repository are resolved a single time for the whole batch, then the statuses are sent in
+ * parallel. Each {@link GitHubStatusNotificationEntry} holds the sha, context, status, description, target url and
+ * skipIfUnchanged of a status, the repository and connection settings are the batch ones.
+ * The step returns one result per entry, in the same order, so a failing entry does not prevent the others from
+ * being sent.
+ */
+public final class GitHubStatusNotificationBatchStep extends AbstractStepImpl {
+
+    public static final String RESULT_SUCCESS = "SUCCESS";
+    public static final String RESULT_SKIPPED = "SKIPPED";
+    public static final String RESULT_FAILURE = "FAILURE";
+
+    /**
+     * The statuses to send
+     */
+    private final List<GitHubStatusNotificationEntry> notifications;
+    /**
+     * The account (user or organization) that owns the repository
+     */
+    private String account;
+    /**
+     * The repository that owns the commits to notify
+     */
+    private String repo;
+    /**
+     * The optional GitHub enterprise instance api url endpoint
+     */
+    private String gitApiUrl = DescriptorImpl.gitApiUrl;
+    /**
+     * The id of the jenkins stored credentials to use to connect to GitHub
+     */
+    private String credentialsId;
+    /**
+     * Whether each commit is fetched to check it exists before sending its status, when null the global default is used
+     */
+    private Boolean verifyCommit;
+    /**
+     * Maximum number of statuses sent at the same time
+     */
+    private int maxConcurrency = DescriptorImpl.maxConcurrency;
+
+    @DataBoundConstructor
+    public GitHubStatusNotificationBatchStep(List<GitHubStatusNotificationEntry> notifications) {
+        this.notifications = notifications == null ? Collections.emptyList() : new ArrayList<>(notifications);
+    }
+
+    public List<GitHubStatusNotificationEntry> getNotifications() {
+        return Collections.unmodifiableList(notifications);
+    }
+
+    @DataBoundSetter
+    public void setAccount(String account) {
+        this.account = Util.fixEmpty(account);
+    }
+
+    @DataBoundSetter
+    public void setRepo(String repo) {
+        this.repo = repo;
+    }
+
+    @DataBoundSetter
+    public void setGitApiUrl(String gitApiUrl) {
+        this.gitApiUrl = gitApiUrl;
+    }
+
+    @DataBoundSetter
+    public void setCredentialsId(String credentialsId) {
+        this.credentialsId = Util.fixEmpty(credentialsId);
+    }
+
+    @DataBoundSetter
+    public void setVerifyCommit(Boolean verifyCommit) {
+        this.verifyCommit = verifyCommit;
+    }
+
+    @DataBoundSetter
+    public void setMaxConcurrency(int maxConcurrency) {
+        this.maxConcurrency = Math.max(1, maxConcurrency);
+    }
+
+    public String getAccount() {
+        return account;
+    }
+
+    public String getRepo() {
+        return repo;
+    }
+
+    public String getGitApiUrl() {
+        return gitApiUrl;
+    }
+
+    public String getCredentialsId() {
+        return credentialsId;
+    }
+
+    public Boolean getVerifyCommit() {
+        return verifyCommit;
+    }
+
+    public int getMaxConcurrency() {
+        return maxConcurrency;
+    }
+
+    @Extension
+    public static final class DescriptorImpl extends AbstractStepDescriptorImpl {
+
+        public static final String gitApiUrl = null;
+        public static final int maxConcurrency = 4;
+
+        public DescriptorImpl() {
+            super(Execution.class);
+        }
+
+        @Override
+        public String getFunctionName() {
+            return "githubNotifyAll";
+        }
+
+        @Override
+        public String getDisplayName() {
+            return "Notifies GitHub of the status of many commits or contexts at once";
+        }
+
+        public ListBoxModel doFillCredentialsIdItems(@AncestorInPath Item project) {
+            return Jenkins.getActiveInstance().getDescriptorByType(GitHubStatusNotificationStep.DescriptorImpl.class)
+                    .doFillCredentialsIdItems(project);
+        }
+
+        public ListBoxModel doFillVerifyCommitItems() {
+            return Jenkins.getActiveInstance().getDescriptorByType(GitHubStatusNotificationStep.DescriptorImpl.class)
+                    .doFillVerifyCommitItems();
+        }
+
+        @Override
+        public Step newInstance(StaplerRequest req, JSONObject formData) throws FormException {
+            return super.newInstance(req, GitHubStatusNotificationStep.DescriptorImpl.withDefaultVerifyCommit(formData));
+        }
+    }
+
+    public static final class Execution extends AbstractNotificationStepExecution<List<Map<String, String>>> {
+
+        @Inject
+        private transient GitHubStatusNotificationBatchStep step;
+
+        @StepContextParameter
+        private transient Run run;
+
+        @StepContextParameter
+        private transient TaskListener listener;
+
+        @Override
+        protected CompletableFuture<List<Map<String, String>>> runAsync() {
+            if (step.getNotifications().isEmpty()) {
+                return CompletableFuture.completedFuture(new ArrayList<>());
+            }
+            RetryPolicy retryPolicy = RetryPolicy.fromConfiguration();
+            return retryPolicy.executeAsync(() -> resolve(retryPolicy), listener.getLogger(), this::supplyAsync)
+                    .thenCompose(this::sendAll);
+        }
+
+        private Target resolve(RetryPolicy retryPolicy) throws IOException {
+            RunInference inference = new RunInference(run);
+            String credentialsId = step.getCredentialsId() == null ? inference.inferCredentialsId() : step.getCredentialsId();
+            boolean inferRepo = step.getRepo() == null || step.getRepo().isEmpty();
+            String repo = inferRepo ? inference.inferRepo() : step.getRepo();
+            // the owner of the SCM source only goes with the repository inferred from it
+            String account = (step.getAccount() == null || step.getAccount().isEmpty())
+                    ? (inferRepo ? inference.inferAccount() : null) : step.getAccount();
+            String gitApiUrl = (step.getGitApiUrl() == null || step.getGitApiUrl().isEmpty()) ? inference.inferGitApiUrl() : step.getGitApiUrl();
+            boolean verifyCommit = step.getVerifyCommit() == null
+                    ? GitHubNotificationConfiguration.get().isVerifyCommit() : step.getVerifyCommit();
+            String defaultTargetUrl = inference.inferTargetUrl();
+
+            List<GitHubStatusNotification> batch = new ArrayList<>();
+            for (GitHubStatusNotificationEntry entry : step.getNotifications()) {
+                String sha = (entry.getSha() == null || entry.getSha().isEmpty()) ? inference.inferSha() : entry.getSha();
+                String targetUrl = (entry.getTargetUrl() == null || entry.getTargetUrl().isEmpty()) ? defaultTargetUrl : entry.getTargetUrl();
+                GitHubStatusNotification notification = new GitHubStatusNotification(run.getParent().getFullName(),
+                        credentialsId, gitApiUrl, account, repo, sha, entry.getStatus(), entry.getDescription(),
+                        entry.getContext(), targetUrl, verifyCommit);
+                batch.add(entry.isSkipIfUnchanged() ? notification.skippingIfUnchanged() : notification);
+            }
+
+            CircuitBreaker breaker = GitHubStatusNotificationStep.getCircuitBreaker(gitApiUrl);
+            String pooledCredentialsId = CredentialsPool.get().select(credentialsId, gitApiUrl);
+            GitHubClientCache.Client client = breaker.call(() -> GitHubStatusNotificationStep.getGitHubIfValid(
+                    pooledCredentialsId, gitApiUrl, run.getParent()));
+            GHRepository repository = breaker.call(() -> GitHubStatusNotificationStep.withCredentialsCheck(
+                    client, () -> GitHubStatusNotificationStep.getRepoIfValid(client, account, repo)));
+            return new Target(batch, breaker, retryPolicy, client, repository);
+        }
+
+        /**
+         * Sends the notifications in {@code maxConcurrency} lanes, each lane posting its next notification once the
+         * previous one completes, so no thread waits for the batch to finish
+         */
+        private CompletableFuture<List<Map<String, String>>> sendAll(Target target) {
+            List<GitHubStatusNotification> batch = target.notifications;
+            List<CompletableFuture<Map<String, String>>> results = new ArrayList<>(Collections.nCopies(batch.size(), null));
+            int lanes = Math.min(step.getMaxConcurrency(), batch.size());
+            for (int lane = 0; lane < lanes; lane++) {
+                CompletableFuture<Map<String, String>> previous = CompletableFuture.completedFuture(null);
+                for (int i = lane; i < batch.size(); i += lanes) {
+                    GitHubStatusNotification notification = batch.get(i);
+                    previous = previous.thenCompose(ignored -> send(target, notification));
+                    results.set(i, previous);
+                }
+            }
+            return CompletableFuture.allOf(results.toArray(new CompletableFuture<?>[0]))
+                    .thenApply(ignored -> results.stream().map(CompletableFuture::join).collect(Collectors.toList()));
+        }
+
+        /**
+         * @return a future that always completes normally, with the result of the notification
+         */
+        private CompletableFuture<Map<String, String>> send(Target target, GitHubStatusNotification notification) {
+            CompletableFuture<Boolean> sent;
+            try {
+                sent = target.retryPolicy.executeAsync(() -> target.breaker.call(() -> {
+                    if (!GitHubStatusNotificationStep.pace(target.client, notification)) {
+                        return false;
+                    }
+                    GitHubStatusNotificationStep.withCredentialsCheck(target.client, () -> {
+                        GitHubStatusNotificationStep.postStatus(target.client, target.repository, notification);
+                        return null;
+                    });
+                    return true;
+                }), null, this::supplyAsync);
+            } catch (RejectedExecutionException e) {
+                sent = new CompletableFuture<>();
+                sent.completeExceptionally(new IllegalStateException(REJECTED, e));
+            }
+            return sent.handle((value, t) -> toResult(notification, value, t));
+        }
+
+        private Map<String, String> toResult(GitHubStatusNotification notification, Boolean sent, Throwable failure) {
+            Map<String, String> result = new HashMap<>();
+            result.put("sha", notification.getSha());
+            result.put("context", notification.getContext());
+            result.put("status", notification.getStatus() == null ? null : notification.getStatus().name());
+            if (failure == null) {
+                if (sent) {
+                    result.put("result", RESULT_SUCCESS);
+                } else {
+                    result.put("result", RESULT_SKIPPED);
+                    result.put("message", GitHubStatusNotificationStep.Execution.RATE_LIMIT_SHED);
+                }
+            } else {
+                Throwable cause = failure instanceof CompletionException && failure.getCause() != null ? failure.getCause() : failure;
+                result.put("result", RESULT_FAILURE);
+                result.put("message", cause.getMessage());
+                listener.getLogger().println("Unable to notify " + notification.getContext() + " on "
+                        + notification.getSha() + ": " + cause.getMessage());
+            }
+            return result;
+        }
+
+        /**
+         * The client and repository resolved once for the whole batch
+         */
+        private static final class Target {
+            private final List<GitHubStatusNotification> notifications;
+            private final CircuitBreaker breaker;
+            private final RetryPolicy retryPolicy;
+            private final GitHubClientCache.Client client;
+            private final GHRepository repository;
+
+            private Target(List<GitHubStatusNotification> notifications, CircuitBreaker breaker, RetryPolicy retryPolicy,
+                           GitHubClientCache.Client client, GHRepository repository) {
+                this.notifications = notifications;
+                this.breaker = breaker;
+                this.retryPolicy = retryPolicy;
+                this.client = client;
+                this.repository = repository;
+            }
+        }
+
+        private static final long serialVersionUID = 1L;
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.pipeline.githubstatusnotification;
+
+import hudson.Extension;
+import hudson.model.AbstractDescribableImpl;
+import hudson.model.Descriptor;
+import hudson.util.ListBoxModel;
+import org.kohsuke.github.GHCommitState;
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
+
+/**
+ * One of the statuses sent by {@link GitHubStatusNotificationBatchStep}, only holding what may differ between the
+ * statuses of a batch, the repository and connection settings being the batch ones.
+ */
+public final class GitHubStatusNotificationEntry extends AbstractDescribableImpl<GitHubStatusNotificationEntry> {
+
+    /**
+     * The commit status to send
+     */
+    private final GHCommitState status;
+    /**
+     * A short description of the status to send
+     */
+    private final String description;
+    /**
+     * A string label to differentiate the status from the status of other systems
+     */
+    private String context = DescriptorImpl.context;
+    /**
+     * The commit to notify, inferred from the build when missing
+     */
+    private String sha;
+    /**
+     * The target URL to associate with the status, the build URL when missing
+     */
+    private String targetUrl = DescriptorImpl.targetUrl;
+    /**
+     * Whether the status is not posted when identical to the last one posted, see {@link StatusLedger}
+     */
+    private boolean skipIfUnchanged;
+
+    @DataBoundConstructor
+    public GitHubStatusNotificationEntry(GHCommitState status, String description) {
+        this.status = status;
+        this.description = description;
+    }
+
+    @DataBoundSetter
+    public void setContext(String context) {
+        this.context = context;
+    }
+
+    @DataBoundSetter
+    public void setSha(String sha) {
+        this.sha = sha;
+    }
+
+    @DataBoundSetter
+    public void setTargetUrl(String targetUrl) {
+        this.targetUrl = targetUrl;
+    }
+
+    @DataBoundSetter
+    public void setSkipIfUnchanged(boolean skipIfUnchanged) {
+        this.skipIfUnchanged = skipIfUnchanged;
+    }
+
+    public GHCommitState getStatus() {
+        return status;
+    }
+
+    public String getDescription() {
+        return description;
+    }
+
+    public String getContext() {
+        return context;
+    }
+
+    public String getSha() {
+        return sha;
+    }
+
+    public String getTargetUrl() {
+        return targetUrl;
+    }
+
+    public boolean isSkipIfUnchanged() {
+        return skipIfUnchanged;
+    }
+
+    @Extension
+    public static final class DescriptorImpl extends Descriptor<GitHubStatusNotificationEntry> {
+
+        public static final String targetUrl = null;
+        public static final String context = GitHubStatusNotificationStep.DescriptorImpl.context;
+
+        @Override
+        public String getDisplayName() {
+            return "Notification";
+        }
+
+        public ListBoxModel doFillStatusItems() {
+            ListBoxModel list = new ListBoxModel();
+            for (GHCommitState state : GHCommitState.values()) {
+                list.add(state.name(), state.name());
+            }
+            return list;
+        }
+    }
+}
@@ -24,51 +24,46 @@
 package org.jenkinsci.plugins.pipeline.githubstatusnotification;
 
 import com.cloudbees.plugins.credentials.Credentials;
-import com.cloudbees.plugins.credentials.CredentialsMatchers;
 import com.cloudbees.plugins.credentials.CredentialsProvider;
 import com.cloudbees.plugins.credentials.common.AbstractIdCredentialsListBoxModel;
 import com.cloudbees.plugins.credentials.common.IdCredentials;
 import com.cloudbees.plugins.credentials.common.StandardListBoxModel;
 import com.cloudbees.plugins.credentials.common.UsernamePasswordCredentials;
-import com.cloudbees.plugins.credentials.domains.DomainRequirement;
 import hudson.Extension;
 import hudson.Util;
 import hudson.model.Item;
-import hudson.model.ItemGroup;
 import hudson.model.Run;
+import hudson.model.TaskListener;
 import hudson.security.ACL;
 import hudson.util.FormValidation;
 import hudson.util.ListBoxModel;
 import jenkins.model.Jenkins;
-import jenkins.plugins.git.AbstractGitSCMSource;
-import jenkins.scm.api.SCMRevision;
-import jenkins.scm.api.SCMRevisionAction;
-import jenkins.scm.api.SCMSource;
-import jenkins.scm.api.SCMSourceOwner;
-import org.jenkinsci.plugins.displayurlapi.DisplayURLProvider;
-import org.jenkinsci.plugins.github_branch_source.GitHubSCMSource;
-import org.jenkinsci.plugins.github_branch_source.PullRequestSCMRevision;
+import net.sf.json.JSONObject;
 import org.jenkinsci.plugins.plaincredentials.StringCredentials;
 import org.jenkinsci.plugins.workflow.steps.AbstractStepDescriptorImpl;
 import org.jenkinsci.plugins.workflow.steps.AbstractStepImpl;
-import org.jenkinsci.plugins.workflow.steps.AbstractSynchronousNonBlockingStepExecution;
+import org.jenkinsci.plugins.workflow.steps.Step;
 import org.jenkinsci.plugins.workflow.steps.StepContextParameter;
 import org.kohsuke.github.*;
 import org.kohsuke.stapler.AncestorInPath;
 import org.kohsuke.stapler.DataBoundConstructor;
 import org.kohsuke.stapler.DataBoundSetter;
 import org.kohsuke.stapler.QueryParameter;
+import org.kohsuke.stapler.StaplerRequest;
 
+import javax.annotation.CheckForNull;
 import javax.annotation.Nonnull;
 import javax.inject.Inject;
+import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.net.HttpURLConnection;
 import java.net.Proxy;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.stream.Collectors;
 
-import static com.cloudbees.plugins.credentials.CredentialsProvider.lookupCredentials;
-
 /**
  * A pipeline step that allows to send a commit status to GitHub.
  * <p>
@@ -82,6 +77,13 @@ public final class GitHubStatusNotificationStep extends AbstractStepImpl {
     public static final String CREDENTIALS_UNSUPPORTED = "Sorry, the supplied type of credentials are not supported";
     public static final String INVALID_REPO = "The specified repository does not exist.  Please ensure the supplied credentials have access to it";
     public static final String INVALID_COMMIT = "The specified commit does not exist in the specified repository";
+    public static final String READ_ONLY = "The commit exists but the supplied credentials can only read the repository, its status may be rejected";
+
+    static final String GITHUB_API_URL = "https://api.github.com";
+    /**
+     * Returned by GitHub when posting a status for a commit it does not know about
+     */
+    private static final int HTTP_UNPROCESSABLE_ENTITY = 422;
 
     /**
      * The commit status to send with the notification
@@ -96,7 +98,13 @@ public final class GitHubStatusNotificationStep extends AbstractStepImpl {
      */
     private String context = DescriptorImpl.context;
     /**
-     * The repository that owns the commit to notify
+     * The account (user or organization) that owns the repository.
+     * <p>
+     * Allows to resolve the repository with a single API call instead of listing every repository the credentials can see
+     */
+    private String account;
+    /**
+     * The repository that owns the commit to notify, either as a plain name or in the {@code owner/name} form
      */
     private String repo;
     /**
@@ -119,6 +127,20 @@ public final class GitHubStatusNotificationStep extends AbstractStepImpl {
      * This URL will be linked from the GitHub UI to allow users to easily see the 'source' of the Status.
      */
     private String targetUrl = DescriptorImpl.targetUrl;
+    /**
+     * Whether the commit is fetched to check it exists before sending the status.
+     * <p>
+     * When null the global default from {@link GitHubNotificationConfiguration} is used
+     */
+    private Boolean verifyCommit;
+    /**
+     * Whether the step returns as soon as the notification is queued, leaving its delivery to {@link NotificationDispatcher}
+     */
+    private boolean async;
+    /**
+     * Whether the status is not posted when identical to the last one posted, see {@link StatusLedger}
+     */
+    private boolean skipIfUnchanged;
 
     @DataBoundConstructor
     public GitHubStatusNotificationStep(GHCommitState status, String description) {
@@ -149,6 +171,11 @@ public final class GitHubStatusNotificationStep extends AbstractStepImpl {
         this.context = context;
     }
 
+    @DataBoundSetter
+    public void setAccount(String account) {
+        this.account = Util.fixEmpty(account);
+    }
+
     @DataBoundSetter
     public void setRepo(String repo) {
         this.repo = repo;
@@ -159,6 +186,21 @@ public final class GitHubStatusNotificationStep extends AbstractStepImpl {
         this.sha = sha;
     }
 
+    @DataBoundSetter
+    public void setVerifyCommit(Boolean verifyCommit) {
+        this.verifyCommit = verifyCommit;
+    }
+
+    @DataBoundSetter
+    public void setAsync(boolean async) {
+        this.async = async;
+    }
+
+    @DataBoundSetter
+    public void setSkipIfUnchanged(boolean skipIfUnchanged) {
+        this.skipIfUnchanged = skipIfUnchanged;
+    }
+
     @DataBoundSetter
     public void setCredentialsId(String credentialsId) {
         this.credentialsId = Util.fixEmpty(credentialsId);
@@ -176,6 +218,10 @@ public final class GitHubStatusNotificationStep extends AbstractStepImpl {
         return this.context;
     }
 
+    public String getAccount() {
+        return this.account;
+    }
+
     public String getRepo() {
         return this.repo;
     }
@@ -196,15 +242,21 @@ public final class GitHubStatusNotificationStep extends AbstractStepImpl {
         return this.targetUrl;
     }
 
-    private static <T extends Credentials> T getCredentials(@Nonnull Class<T> type, @Nonnull String credentialsId, Item context) {
-        List<T> credentialsList = lookupCredentials(type,
-                context,
-                ACL.SYSTEM,
-                Collections.<DomainRequirement>emptyList());
+    public Boolean getVerifyCommit() {
+        return this.verifyCommit;
+    }
+
+    public boolean isAsync() {
+        return this.async;
+    }
+
+    public boolean isSkipIfUnchanged() {
+        return this.skipIfUnchanged;
+    }
 
-        return CredentialsMatchers.firstOrNull(credentialsList, CredentialsMatchers.allOf(
-                CredentialsMatchers.withId(credentialsId),
-                CredentialsMatchers.instanceOf(type)));
+    private static <T extends Credentials> T getCredentials(@Nonnull Class<T> type, @Nonnull String credentialsId, Item context) {
+        Credentials credentials = CredentialsIndex.get().lookup(credentialsId, context);
+        return type.isInstance(credentials) ? type.cast(credentials) : null;
     }
 
     /**
@@ -224,7 +276,16 @@ public final class GitHubStatusNotificationStep extends AbstractStepImpl {
         }
     }
 
-    private static GitHub getGitHubIfValid(String credentialsId, String gitApiUrl, Item context) throws IOException {
+    static GitHubClientCache.Client getGitHubIfValid(String credentialsId, String gitApiUrl, Item context) throws IOException {
+        return getGitHub(credentialsId, gitApiUrl, context, true);
+    }
+
+    /**
+     * @param validate whether to check the credentials with GitHub, when the first request sent with the client does
+     *                 not already tell rejected credentials apart, see {@link #withCredentialsCheck}
+     */
+    private static GitHubClientCache.Client getGitHub(String credentialsId, String gitApiUrl, Item context,
+                                                      boolean validate) throws IOException {
         if (credentialsId == null || credentialsId.isEmpty()) {
             throw new IllegalArgumentException(CREDENTIALS_NULL);
         }
@@ -232,48 +293,417 @@ public final class GitHubStatusNotificationStep extends AbstractStepImpl {
         if (credentials == null) {
             throw new IllegalArgumentException(CREDENTIALS_NOT_FOUND);
         }
-        GitHubBuilder githubBuilder = new GitHubBuilder();
 
+        String username = null;
         if (credentials instanceof UsernamePasswordCredentials) {
-            UsernamePasswordCredentials pwdCredentials = ((UsernamePasswordCredentials) credentials);
-            githubBuilder.withOAuthToken(pwdCredentials.getPassword().getPlainText(), pwdCredentials.getUsername());
+            username = ((UsernamePasswordCredentials) credentials).getUsername();
+        }
+
+        String fingerprint = fingerprintOf(credentials);
+        if (fingerprint == null) {
+            throw new IllegalArgumentException(CREDENTIALS_UNSUPPORTED);
+        }
+
+        Proxy proxy = (gitApiUrl == null || gitApiUrl.isEmpty()) ? getProxy(GITHUB_API_URL) : getProxy(gitApiUrl);
+        CredentialsChangeListener.get().watch(credentialsId, context, fingerprint);
+        NegativeCache negativeCache = NegativeCache.get();
+        // built from the credentials, not from the token, which is renewed for GitHub App credentials
+        GitHubClientCache.Key credentialsKey = new GitHubClientCache.Key(credentialsId, fingerprint,
+                Util.fixEmpty(gitApiUrl), proxy);
+        negativeCache.check(NegativeCache.credentialsKey(credentialsKey));
+        String token = getToken(credentialsKey, credentials);
+        GitHubClientCache cache = GitHubClientCache.get();
+        GitHubClientCache.Key key = new GitHubClientCache.Key(credentialsId,
+                GitHubClientCache.fingerprint(username, token), Util.fixEmpty(gitApiUrl), proxy);
+        GitHub github = cache.get(key);
+        boolean built = false;
+        if (github == null) {
+            github = buildGitHub(username, token, gitApiUrl, proxy);
+            built = true;
+        }
+
+        // GitHub already checked the App when minting its installation token
+        if (!validate || credentials instanceof GitHubAppCredentials || CredentialValidityCache.get().isValid(key, github)) {
+            if (built) {
+                cache.put(key, github);
+            }
+            return new GitHubClientCache.Client(github, key, credentialsKey, token);
+        } else {
+            cache.invalidate(key);
+            negativeCache.record(NegativeCache.credentialsKey(credentialsKey), credentialsId, CREDENTIALS_INVALID);
+            throw new IllegalArgumentException(CREDENTIALS_INVALID);
+        }
+    }
+
+    /**
+     * @return the token to authenticate with, an installation token minted on demand for GitHub App credentials
+     */
+    @Nonnull
+    private static String getToken(@Nonnull GitHubClientCache.Key credentialsKey, @Nonnull Credentials credentials)
+            throws IOException {
+        if (credentials instanceof GitHubAppCredentials) {
+            try {
+                return GitHubAppTokenProvider.get().getToken(credentialsKey.getCredentialsId(),
+                        (GitHubAppCredentials) credentials, credentialsKey.getGitApiUrl(), credentialsKey.getProxy());
+            } catch (IllegalArgumentException e) {
+                NegativeCache.get().record(NegativeCache.credentialsKey(credentialsKey), credentialsKey.getCredentialsId(),
+                        CREDENTIALS_INVALID);
+                throw e;
+            }
+        }
+        return getToken(credentials);
+    }
+
+    @Nonnull
+    private static String getToken(@Nonnull Credentials credentials) {
+        if (credentials instanceof UsernamePasswordCredentials) {
+            return ((UsernamePasswordCredentials) credentials).getPassword().getPlainText();
         } else if (credentials instanceof StringCredentials) {
-            githubBuilder.withOAuthToken(((StringCredentials) credentials).getSecret().getPlainText());
+            return ((StringCredentials) credentials).getSecret().getPlainText();
         } else {
             throw new IllegalArgumentException(CREDENTIALS_UNSUPPORTED);
         }
+    }
 
-        if (gitApiUrl == null || gitApiUrl.isEmpty()) {
-            githubBuilder = githubBuilder.withProxy(getProxy("https://api.github.com"));
-        } else {
-            githubBuilder = githubBuilder.withEndpoint(gitApiUrl);
-            githubBuilder = githubBuilder.withProxy(getProxy(gitApiUrl));
+    /**
+     * @return the fingerprint of the secret held by the given credentials, null if they are not supported
+     */
+    @CheckForNull
+    static String fingerprintOf(@Nonnull Credentials credentials) {
+        if (credentials instanceof UsernamePasswordCredentials) {
+            return GitHubClientCache.fingerprint(((UsernamePasswordCredentials) credentials).getUsername(),
+                    getToken(credentials));
+        } else if (credentials instanceof StringCredentials) {
+            return GitHubClientCache.fingerprint(null, getToken(credentials));
+        } else if (credentials instanceof GitHubAppCredentials) {
+            GitHubAppCredentials app = (GitHubAppCredentials) credentials;
+            return GitHubClientCache.fingerprint(app.getAppId() + "/" + app.getInstallationId() + "/" + app.getOwner(),
+                    app.getPrivateKey().getPlainText());
         }
+        return null;
+    }
 
-        GitHub github = githubBuilder.build();
+    /**
+     * @return whether repository and commit can be checked with a single GraphQL request, which is the case when
+     * enabled in the global configuration and the repository owner is known
+     */
+    private static boolean canValidateWithGraphQL(String account, String repo, String sha) {
+        return GitHubNotificationConfiguration.get().isGraphQLValidation() && sha != null
+                && repo != null && !repo.isEmpty() && getRepoFullName(account, repo) != null;
+    }
 
-        if (github.isCredentialValid()) {
-            return github;
+    /**
+     * Checks repository and commit with a single GraphQL request when {@link #canValidateWithGraphQL} allows it,
+     * unless either is already known to be missing
+     *
+     * @return the validation, or null if it has to be done through the REST API
+     */
+    @CheckForNull
+    private static GitHubGraphQL.Validation validateWithGraphQL(@Nonnull GitHubClientCache.Client client, String account,
+                                                                String repo, String sha) throws IOException {
+        if (!canValidateWithGraphQL(account, repo, sha)) {
+            return null;
+        }
+        String fullName = getRepoFullName(account, repo);
+        GitHubClientCache.Key key = client.getKey();
+        NegativeCache.get().check(NegativeCache.repositoryKey(key, account, repo));
+        NegativeCache.get().check(NegativeCache.commitKey(key, fullName, sha));
+        int slash = fullName.indexOf('/');
+        try {
+            return client.getGraphQL().validate(fullName.substring(0, slash), fullName.substring(slash + 1), sha);
+        } catch (HttpException ex) {
+            if (ex.getResponseCode() == HttpURLConnection.HTTP_NOT_FOUND) {
+                // GitHub Enterprise without GraphQL support
+                return null;
+            }
+            throw ex;
+        }
+    }
+
+    private static GitHub buildGitHub(String username, @Nonnull String token, String gitApiUrl, @Nonnull Proxy proxy) throws IOException {
+        GitHubBuilder githubBuilder = new GitHubBuilder();
+        if (username != null) {
+            githubBuilder.withOAuthToken(token, username);
         } else {
-            throw new IllegalArgumentException(CREDENTIALS_INVALID);
+            githubBuilder.withOAuthToken(token);
+        }
+
+        if (gitApiUrl != null && !gitApiUrl.isEmpty()) {
+            githubBuilder = githubBuilder.withEndpoint(gitApiUrl);
         }
+        githubBuilder = githubBuilder.withProxy(proxy);
+        // after withProxy, which installs a connector of its own
+        githubBuilder.withConnector(new KeepAliveHttpConnector(proxy));
+        githubBuilder.withAbuseLimitHandler(RetryPolicy.ABUSE_LIMIT_HANDLER);
+        githubBuilder.withRateLimitHandler(RetryPolicy.RATE_LIMIT_HANDLER);
+
+        return githubBuilder.build();
+    }
+
+    /**
+     * Forgets everything cached about the given credentials, to be called whenever GitHub rejects them
+     */
+    private static void invalidateCredentials(@Nonnull GitHubClientCache.Client client) {
+        GitHubClientCache.Key key = client.getKey();
+        GitHubClientCache.get().invalidate(key);
+        CredentialValidityCache.get().invalidate(key);
+        // a revoked installation token is minted again, the App itself is checked when doing so
+        GitHubAppTokenProvider.get().invalidate(key.getCredentialsId());
+        NegativeCache.get().record(NegativeCache.credentialsKey(client.getCredentialsKey()), key.getCredentialsId(),
+                CREDENTIALS_INVALID);
     }
 
-    private static GHRepository getRepoIfValid(String credentialsId, String gitApiUrl, String repo, Item context) throws IOException {
-        GitHub github = getGitHubIfValid(credentialsId, gitApiUrl, context);
+    private static GHRepository getRepoIfValid(String credentialsId, String gitApiUrl, String account, String repo, Item context) throws IOException {
+        return getRepoIfValid(getGitHubIfValid(credentialsId, gitApiUrl, context), account, repo);
+    }
 
-        GHRepository repository = github.getMyself().getAllRepositories().get(repo);
+    static GHRepository getRepoIfValid(@Nonnull GitHubClientCache.Client client, String account, String repo) throws IOException {
+        GitHubClientCache.Key key = client.getKey();
+        String negativeKey = NegativeCache.repositoryKey(key, account, repo);
+        NegativeCache.get().check(negativeKey);
+        GHRepository repository = resolveRepository(client.getGitHub(), account, repo);
 
         if (repository == null) {
+            NegativeCache.get().record(negativeKey, key.getCredentialsId(), INVALID_REPO);
             throw new IllegalArgumentException(INVALID_REPO);
         }
         return repository;
     }
 
-    private static GHCommit getCommitIfValid(String credentialsId, String gitApiUrl, String repo, String sha, Item context) throws IOException {
-        GHRepository repository = getRepoIfValid(credentialsId, gitApiUrl, repo, context);
-        GHCommit commit = repository.getCommit(sha);
+    /**
+     * Looks up the repository with a single {@code GET /repos/{owner}/{repo}} whenever the owner is known, only
+     * falling back to listing every repository visible to the credentials when it is not.
+     *
+     * @return the repository or null if it does not exist or is not accessible
+     */
+    private static GHRepository resolveRepository(@Nonnull GitHub github, String account, String repo) throws IOException {
+        if (repo == null || repo.isEmpty()) {
+            return null;
+        }
+        String fullName = getRepoFullName(account, repo);
+        if (fullName == null) {
+            return github.getMyself().getAllRepositories().get(repo);
+        }
+        try {
+            return github.getRepository(fullName);
+        } catch (FileNotFoundException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return the {@code owner/name} form of the repository or null if the owner is unknown
+     */
+    static String getRepoFullName(String account, @Nonnull String repo) {
+        if (repo.indexOf('/') >= 0) {
+            return repo;
+        } else if (account == null || account.isEmpty()) {
+            return null;
+        } else {
+            return account + "/" + repo;
+        }
+    }
+
+    /**
+     * Sends the given notification to GitHub
+     *
+     * @param context the item used to look up the notification credentials
+     * @return false if the notification was dropped to save rate limit budget
+     */
+    static boolean send(@Nonnull GitHubStatusNotification notification, Item context) throws IOException {
+        return getCircuitBreaker(notification.getGitApiUrl()).call(() -> doSend(notification, context));
+    }
+
+    private static boolean doSend(@Nonnull GitHubStatusNotification notification, Item context) throws IOException {
+        String credentialsId = CredentialsPool.get().select(notification.getCredentialsId(), notification.getGitApiUrl());
+        String account = notification.getAccount();
+        String repo = notification.getRepo();
+        // a rejected token fails the GraphQL query just as well as GET /rate_limit, no need to send both
+        boolean graphQL = notification.isVerifyCommit() && canValidateWithGraphQL(account, repo, notification.getSha());
+        GitHubClientCache.Client client = getGitHub(credentialsId, notification.getGitApiUrl(), context, !graphQL);
+        if (!pace(client, notification)) {
+            return false;
+        }
+        return withCredentialsCheck(client, () -> {
+            if (graphQL) {
+                GitHubGraphQL.Validation validation = validateWithGraphQL(client, account, repo, notification.getSha());
+                if (validation != null) {
+                    // the repository is known to exist, no need to read it before posting
+                    postStatus(client, null, getRepoFullName(account, repo), notification.verified(
+                            checkValidation(client.getKey(), account, repo, notification.getSha(), validation)));
+                    return true;
+                }
+            }
+            postStatus(client, getRepoIfValid(client, account, repo), notification);
+            return true;
+        });
+    }
+
+    /**
+     * @return the full sha of the validated commit
+     */
+    @Nonnull
+    private static String checkValidation(@CheckForNull GitHubClientCache.Key key, String account, String repo,
+                                          String sha, @Nonnull GitHubGraphQL.Validation validation) {
+        if (!validation.isRepositoryFound()) {
+            if (key != null) {
+                NegativeCache.get().record(NegativeCache.repositoryKey(key, account, repo), key.getCredentialsId(), INVALID_REPO);
+            }
+            throw new IllegalArgumentException(INVALID_REPO);
+        }
+        if (validation.getCommitSha() == null) {
+            if (key != null) {
+                NegativeCache.get().record(NegativeCache.commitKey(key, getRepoFullName(account, repo), sha),
+                        key.getCredentialsId(), INVALID_COMMIT);
+            }
+            throw new IllegalArgumentException(INVALID_COMMIT);
+        }
+        return validation.getCommitSha();
+    }
+
+    /**
+     * Runs a call using the given client, forgetting its credentials if GitHub rejects them
+     */
+    static <T> T withCredentialsCheck(@Nonnull GitHubClientCache.Client client, @Nonnull RetryPolicy.Call<T> call) throws IOException {
+        try {
+            return call.call();
+        } catch (HttpException ex) {
+            if (ex.getResponseCode() == HttpURLConnection.HTTP_UNAUTHORIZED) {
+                invalidateCredentials(client);
+                throw new IllegalArgumentException(CREDENTIALS_INVALID, ex);
+            }
+            throw ex;
+        }
+    }
+
+    /**
+     * Takes the requests needed to send the given notification from the rate limit budget of the client, before any
+     * of them is sent. The status itself is paced by {@link #postStatus}, once it is known to be sent.
+     *
+     * @return false if the notification should be dropped to save rate limit budget
+     * @throws RetryPolicy.PacedException if the notification has to wait for the rate limit
+     */
+    static boolean pace(@Nonnull GitHubClientCache.Client client, @Nonnull GitHubStatusNotification notification)
+            throws RetryPolicy.PacedException {
+        long delay = RateLimitScheduler.get().tryAcquire(client.getKey(), notification.isLowPriority(),
+                notification.getCreatedAt());
+        if (delay == RateLimitScheduler.SHED) {
+            return false;
+        }
+        if (delay > 0) {
+            throw new RetryPolicy.PacedException(delay);
+        }
+        return true;
+    }
+
+    /**
+     * Sends the status of the given notification to an already resolved repository, once {@link #pace} let it
+     * through
+     *
+     * @throws RetryPolicy.PacedException if the status has to wait for the status pacing of the token
+     */
+    static void postStatus(@Nonnull GitHubClientCache.Client client, @Nonnull GHRepository repository,
+                           @Nonnull GitHubStatusNotification notification) throws IOException {
+        postStatus(client, repository, repository.getFullName(), notification);
+    }
+
+    /**
+     * @param repository the resolved repository, null to post without reading it first, in which case the commit
+     *                   must already have been verified
+     * @param fullName   the {@code owner/name} form of the repository
+     */
+    private static void postStatus(@Nonnull GitHubClientCache.Client client, @CheckForNull GHRepository repository,
+                                   @Nonnull String fullName, @Nonnull GitHubStatusNotification notification) throws IOException {
+        GitHub github = client.getGitHub();
+        GitHubStatusPoster poster = repository == null ? client.getStatusPoster() : null;
+        StatusLedger ledger = StatusLedger.get();
+        String ledgerKey = StatusLedger.keyOf(github.getApiUrl(), fullName, notification.getSha(),
+                notification.getContext());
+        if (notification.isSkipIfUnchanged() && ledger.isUnchanged(ledgerKey, notification)) {
+            return;
+        }
+        GitHubClientCache.Key key = client.getKey();
+        String commitKey = NegativeCache.commitKey(key, fullName, notification.getSha());
+        NegativeCache.get().check(commitKey);
+        try {
+            String sha1 = notification.getSha();
+            if (notification.isVerifyCommit()) {
+                if (repository == null) {
+                    throw new IllegalStateException("Commit " + sha1 + " must be verified before posting its status");
+                }
+                GHCommit commit = null;
+                try {
+                    commit = repository.getCommit(sha1);
+                } catch (FileNotFoundException ex) {
+                    rememberInvalidCommit(key, commitKey);
+                    throw new IllegalArgumentException(INVALID_COMMIT, ex);
+                }
+                if (commit == null) {
+                    rememberInvalidCommit(key, commitKey);
+                    throw new IllegalArgumentException(INVALID_COMMIT);
+                }
+                sha1 = commit.getSHA1();
+            }
+            // last, so statuses shed, delayed or found unchanged do not use up the pace of the token
+            WriteRateLimiter writeRateLimiter = WriteRateLimiter.get();
+            long delay = writeRateLimiter.tryAcquire(key, notification.getCreatedAt());
+            if (delay > 0) {
+                throw new RetryPolicy.PacedException(delay);
+            }
+            try {
+                if (poster != null) {
+                    poster.createCommitStatus(fullName, sha1, notification.getStatus(), notification.getTargetUrl(),
+                            notification.getDescription(), notification.getContext());
+                } else {
+                    repository.createCommitStatus(sha1, notification.getStatus(), notification.getTargetUrl(),
+                            notification.getDescription(), notification.getContext());
+                }
+                ledger.record(ledgerKey, notification);
+                writeRateLimiter.onSuccess(key);
+            } catch (RetryPolicy.RetryAfterException ex) {
+                ledger.forget(ledgerKey);
+                writeRateLimiter.onLimited(key, ex.getDelayMillis());
+                throw ex;
+            } catch (HttpException ex) {
+                ledger.forget(ledgerKey);
+                if (ex.getResponseCode() == HTTP_UNPROCESSABLE_ENTITY) {
+                    rememberInvalidCommit(key, commitKey);
+                    throw new IllegalArgumentException(INVALID_COMMIT, ex);
+                }
+                throw ex;
+            } catch (IOException ex) {
+                // the status may or may not have been posted
+                ledger.forget(ledgerKey);
+                throw ex;
+            }
+        } finally {
+            RateLimitScheduler.get().observe(key, poster != null ? poster.lastRateLimit() : github.lastRateLimit());
+        }
+    }
+
+    private static void rememberInvalidCommit(@Nonnull GitHubClientCache.Key key, @Nonnull String commitKey) {
+        NegativeCache.get().record(commitKey, key.getCredentialsId(), INVALID_COMMIT);
+    }
+
+    @Nonnull
+    static CircuitBreaker getCircuitBreaker(String gitApiUrl) {
+        return CircuitBreakerRegistry.get().forEndpoint(gitApiUrl == null || gitApiUrl.isEmpty() ? GITHUB_API_URL : gitApiUrl);
+    }
+
+    private static GHCommit getCommitIfValid(String credentialsId, String gitApiUrl, String account, String repo, String sha, Item context) throws IOException {
+        GitHubClientCache.Client client = getGitHubIfValid(credentialsId, gitApiUrl, context);
+        GHRepository repository = getRepoIfValid(client, account, repo);
+        GitHubClientCache.Key key = client.getKey();
+        String commitKey = NegativeCache.commitKey(key, repository.getFullName(), sha);
+        NegativeCache.get().check(commitKey);
+        GHCommit commit;
+        try {
+            commit = repository.getCommit(sha);
+        } catch (FileNotFoundException ex) {
+            commit = null;
+        }
         if (commit == null) {
+            rememberInvalidCommit(key, commitKey);
             throw new IllegalArgumentException(INVALID_COMMIT);
         }
         return commit;
@@ -306,7 +736,8 @@ public final class GitHubStatusNotificationStep extends AbstractStepImpl {
             List<Credentials> credentialsList = CredentialsProvider
                     .lookupCredentials(Credentials.class, project, ACL.SYSTEM, Collections.emptyList())
                     .stream()
-                    .filter(cred -> (cred instanceof UsernamePasswordCredentials) || (cred instanceof StringCredentials))
+                    .filter(cred -> (cred instanceof UsernamePasswordCredentials) || (cred instanceof StringCredentials)
+                            || (cred instanceof GitHubAppCredentials))
                     .collect(Collectors.toList());
 
             for (Credentials credential : credentialsList) {
@@ -323,29 +754,65 @@ public final class GitHubStatusNotificationStep extends AbstractStepImpl {
             return list;
         }
 
+        public ListBoxModel doFillVerifyCommitItems() {
+            ListBoxModel list = new ListBoxModel();
+            list.add("Global default", "");
+            list.add("Yes", "true");
+            list.add("No", "false");
+            return list;
+        }
+
+        @Override
+        public Step newInstance(StaplerRequest req, JSONObject formData) throws FormException {
+            return super.newInstance(req, withDefaultVerifyCommit(formData));
+        }
+
+        /**
+         * The blank verifyCommit choice stands for the global default, it is dropped so the step gets null instead of
+         * false
+         */
+        static JSONObject withDefaultVerifyCommit(JSONObject formData) {
+            if ("".equals(formData.optString("verifyCommit", null))) {
+                formData.remove("verifyCommit");
+            }
+            return formData;
+        }
+
         public FormValidation doTestConnection(@QueryParameter("credentialsId") final String credentialsId, @QueryParameter("gitApiUrl") final String gitApiUrl, @AncestorInPath Item context) {
             try {
-                getGitHubIfValid(credentialsId, gitApiUrl, context);
+                getCircuitBreaker(gitApiUrl).call(() -> getGitHubIfValid(credentialsId, gitApiUrl, context));
                 return FormValidation.ok("Success");
             } catch (Exception e) {
                 return FormValidation.error(e.getMessage());
             }
         }
 
-        public FormValidation doCheckRepo(@QueryParameter("credentialsId") final String credentialsId,
+        public FormValidation doCheckRepo(@QueryParameter("credentialsId") final String credentialsId, @QueryParameter("account") final String account,
                                           @QueryParameter("repo") final String repo, @QueryParameter("gitApiUrl") final String gitApiUrl, @AncestorInPath Item context) {
             try {
-                getRepoIfValid(credentialsId, gitApiUrl, repo, context);
+                getCircuitBreaker(gitApiUrl).call(() -> getRepoIfValid(credentialsId, gitApiUrl, account, repo, context));
                 return FormValidation.ok("Success");
             } catch (Exception e) {
                 return FormValidation.error(e.getMessage());
             }
         }
 
-        public FormValidation doCheckSha(@QueryParameter("credentialsId") final String credentialsId, @QueryParameter("repo") final String repo,
-                                         @QueryParameter("sha") final String sha, @QueryParameter("gitApiUrl") final String gitApiUrl, @AncestorInPath Item context) {
+        public FormValidation doCheckSha(@QueryParameter("credentialsId") final String credentialsId, @QueryParameter("account") final String account,
+                                         @QueryParameter("repo") final String repo, @QueryParameter("sha") final String sha,
+                                         @QueryParameter("gitApiUrl") final String gitApiUrl, @AncestorInPath Item context) {
             try {
-                getCommitIfValid(credentialsId, gitApiUrl, repo, sha, context);
+                GitHubGraphQL.Validation validation = getCircuitBreaker(gitApiUrl).call(() -> {
+                    GitHubClientCache.Client client = getGitHubIfValid(credentialsId, gitApiUrl, context);
+                    return withCredentialsCheck(client, () -> validateWithGraphQL(client, account, repo, sha));
+                });
+                if (validation == null) {
+                    getCircuitBreaker(gitApiUrl).call(() -> getCommitIfValid(credentialsId, gitApiUrl, account, repo, sha, context));
+                } else {
+                    checkValidation(null, account, repo, sha, validation);
+                    if ("READ".equals(validation.getViewerPermission())) {
+                        return FormValidation.warning(READ_ONLY);
+                    }
+                }
                 return FormValidation.ok("Commit seems valid");
 
             } catch (Exception e) {
@@ -354,11 +821,14 @@ public final class GitHubStatusNotificationStep extends AbstractStepImpl {
         }
     }
 
-    public static final class Execution extends AbstractSynchronousNonBlockingStepExecution<Void> {
+    public static final class Execution extends AbstractNotificationStepExecution<Void> {
 
         public static final String UNABLE_TO_INFER_DATA = "Unable to infer git data, please specify repo, credentialsId and sha values";
         public static final String UNABLE_TO_INFER_COMMIT = "Could not infer exact commit to use, please specify one";
         public static final String UNABLE_TO_INFER_CREDENTIALS_ID = "Can not infer exact credentialsId to use, please specify one";
+        public static final String RATE_LIMIT_SHED = "GitHub rate limit almost exhausted, the pending status was not sent";
+        public static final String QUEUED_WHILE_CIRCUIT_OPEN = "the status will be sent in the background once it recovers";
+        public static final String QUEUED_WHILE_REJECTED = "Too many GitHub notifications in progress, the status will be sent in the background";
 
         @Inject
         private transient GitHubStatusNotificationStep step;
@@ -366,22 +836,64 @@ public final class GitHubStatusNotificationStep extends AbstractStepImpl {
         @StepContextParameter
         private transient Run run;
 
+        @StepContextParameter
+        private transient TaskListener listener;
+
+        /**
+         * Created on the first attempt and reused by the following ones
+         */
+        private transient volatile GitHubStatusNotification notification;
+
         @Override
-        protected Void run() throws Exception {
-            String targetUrl = getTargetUrl();
-            String credentialsId = getCredentialsId();
-            String repo = getRepo();
-            GHRepository repository = getRepoIfValid(credentialsId, step.getGitApiUrl(), repo, run.getParent());
-            String sha1 = getSha1();
-            GHCommit commit = null;
-            try {
-                commit = repository.getCommit(sha1);
-            } catch (IOException ex) {
-                throw new IllegalArgumentException(INVALID_COMMIT, ex);
+        protected CompletableFuture<Void> runAsync() {
+            return RetryPolicy.fromConfiguration().executeAsync(this::send, listener.getLogger(), this::supplyAsync)
+                    .handle((sent, t) -> {
+                        if (t == null) {
+                            if (!sent) {
+                                listener.getLogger().println(RATE_LIMIT_SHED);
+                            }
+                            return null;
+                        }
+                        Throwable cause = t instanceof CompletionException && t.getCause() != null ? t.getCause() : t;
+                        if (!(cause instanceof CircuitBreaker.CircuitOpenException)
+                                || !GitHubNotificationConfiguration.get().isQueueWhileCircuitOpen()) {
+                            throw new CompletionException(cause);
+                        }
+                        listener.getLogger().println(cause.getMessage() + ", " + QUEUED_WHILE_CIRCUIT_OPEN);
+                        NotificationDispatcher.get().submit(getNotification());
+                        return null;
+                    });
+        }
+
+        private boolean send() throws IOException {
+            GitHubStatusNotification notification = getNotification();
+            if (step.isAsync()) {
+                NotificationDispatcher.get().submit(notification);
+                return true;
             }
-            repository.createCommitStatus(commit.getSHA1(),
-                    step.getStatus(), targetUrl, step.getDescription(), step.getContext());
-            return null;
+            return GitHubStatusNotificationStep.send(notification, run.getParent());
+        }
+
+        @Override
+        protected boolean onRejected() throws Exception {
+            NotificationDispatcher.get().submit(getNotification());
+            listener.getLogger().println(QUEUED_WHILE_REJECTED);
+            getContext().onSuccess(null);
+            return true;
+        }
+
+        private GitHubStatusNotification getNotification() {
+            if (notification == null) {
+                notification = createNotification();
+            }
+            return notification;
+        }
+
+        private GitHubStatusNotification createNotification() {
+            GitHubStatusNotification notification = new GitHubStatusNotification(run.getParent().getFullName(),
+                    getCredentialsId(), getGitApiUrl(), getAccount(), getRepo(), getSha1(), step.getStatus(),
+                    step.getDescription(), step.getContext(), getTargetUrl(), isVerifyCommit());
+            return step.isSkipIfUnchanged() ? notification.skippingIfUnchanged() : notification;
         }
 
         public GitHubStatusNotificationStep getStep() {
@@ -403,12 +915,12 @@ public final class GitHubStatusNotificationStep extends AbstractStepImpl {
         private static final long serialVersionUID = 1L;
 
         private String getTargetUrl() {
-            return (step.getTargetUrl() == null || step.getTargetUrl().isEmpty()) ? DisplayURLProvider.get().getRunURL(run) : step.getTargetUrl();
+            return (step.getTargetUrl() == null || step.getTargetUrl().isEmpty()) ? new RunInference(run).inferTargetUrl() : step.getTargetUrl();
         }
 
         private String getCredentialsId() {
             if (step.getCredentialsId() == null || step.getCredentialsId().isEmpty()) {
-                return tryToInferCredentialsId();
+                return new RunInference(run).inferCredentialsId();
             } else {
                 return step.getCredentialsId();
             }
@@ -416,61 +928,44 @@ public final class GitHubStatusNotificationStep extends AbstractStepImpl {
 
         private String getRepo() {
             if (step.getRepo() == null || step.getRepo().isEmpty()) {
-                return tryToInferRepo();
+                return new RunInference(run).inferRepo();
             } else {
                 return step.getRepo();
             }
         }
 
-        private String getSha1() {
-            if (step.getSha() == null || step.getSha().isEmpty()) {
-                return tryToInferSha();
+        private String getAccount() {
+            if (step.getAccount() != null && !step.getAccount().isEmpty()) {
+                return step.getAccount();
+            } else if (step.getRepo() == null || step.getRepo().isEmpty()) {
+                // the owner of the SCM source only goes with the repository inferred from it
+                return new RunInference(run).inferAccount();
             } else {
-                return step.getSha();
+                return null;
             }
         }
 
-        private String tryToInferCredentialsId() {
-            String credentialsID = getSource().getScanCredentialsId();
-            if (credentialsID != null) {
-                return credentialsID;
+        private String getGitApiUrl() {
+            if (step.getGitApiUrl() == null || step.getGitApiUrl().isEmpty()) {
+                return new RunInference(run).inferGitApiUrl();
             } else {
-                throw new IllegalArgumentException(UNABLE_TO_INFER_CREDENTIALS_ID);
+                return step.getGitApiUrl();
             }
         }
 
-        private String tryToInferRepo() {
-            return getSource().getRepository();
-        }
-
-        private String tryToInferSha() {
-            SCMRevisionAction action = run.getAction(SCMRevisionAction.class);
-            if (action != null) {
-                SCMRevision revision = action.getRevision();
-                if (revision instanceof AbstractGitSCMSource.SCMRevisionImpl) {
-                    return ((AbstractGitSCMSource.SCMRevisionImpl) revision).getHash();
-                } else if (revision instanceof PullRequestSCMRevision) {
-                    return ((PullRequestSCMRevision) revision).getPullHash();
-                } else {
-                    throw new IllegalArgumentException(UNABLE_TO_INFER_COMMIT);
-                }
+        private boolean isVerifyCommit() {
+            if (step.getVerifyCommit() == null) {
+                return GitHubNotificationConfiguration.get().isVerifyCommit();
             } else {
-                throw new IllegalArgumentException(UNABLE_TO_INFER_COMMIT);
+                return step.getVerifyCommit();
             }
         }
 
-        private GitHubSCMSource getSource() {
-            ItemGroup parent = run.getParent().getParent();
-            if (parent instanceof SCMSourceOwner) {
-                SCMSourceOwner owner = (SCMSourceOwner) parent;
-                for (SCMSource source : owner.getSCMSources()) {
-                    if (source instanceof GitHubSCMSource) {
-                        return ((GitHubSCMSource) source);
-                    }
-                }
-                throw new IllegalArgumentException(UNABLE_TO_INFER_DATA);
+        private String getSha1() {
+            if (step.getSha() == null || step.getSha().isEmpty()) {
+                return new RunInference(run).inferSha();
             } else {
-                throw new IllegalArgumentException(UNABLE_TO_INFER_DATA);
+                return step.getSha();
             }
         }
     }
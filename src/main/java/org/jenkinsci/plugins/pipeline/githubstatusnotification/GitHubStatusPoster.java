@@ -0,0 +1,154 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.pipeline.githubstatusnotification;
+
+import net.sf.json.JSONObject;
+import org.apache.commons.io.IOUtils;
+import org.kohsuke.github.GHCommitState;
+import org.kohsuke.github.GHRateLimit;
+import org.kohsuke.github.HttpConnector;
+import org.kohsuke.github.HttpException;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Posts a commit status with a single REST request.
+ * <p>
+ * github-api only posts statuses through a repository, which it reads first with {@code GET /repos/{owner}/{repo}}.
+ * Once a GraphQL query already checked the repository and commit that request is not needed.
+ */
+public final class GitHubStatusPoster {
+
+    private final String gitApiUrl;
+    private final String authorization;
+    private final HttpConnector connector;
+    private volatile GHRateLimit lastRateLimit;
+
+    /**
+     * @param gitApiUrl     the REST API endpoint, null for github.com
+     * @param authorization the value of the Authorization header
+     */
+    public GitHubStatusPoster(@CheckForNull String gitApiUrl, @Nonnull String authorization, @Nonnull HttpConnector connector) {
+        this.gitApiUrl = gitApiUrl;
+        this.authorization = authorization;
+        this.connector = connector;
+    }
+
+    /**
+     * Sets the status of a commit, the rate limits of GitHub are handled as with the clients built by the step, see
+     * {@link RetryPolicy#ABUSE_LIMIT_HANDLER} and {@link RetryPolicy#RATE_LIMIT_HANDLER}
+     *
+     * @param fullName the {@code owner/name} form of the repository
+     * @param sha      the full sha of the commit
+     * @throws HttpException if GitHub answers with an error status, 401 if the credentials are rejected
+     */
+    public void createCommitStatus(@Nonnull String fullName, @Nonnull String sha, @Nonnull GHCommitState state,
+                                   @CheckForNull String targetUrl, @CheckForNull String description,
+                                   @CheckForNull String context) throws IOException {
+        JSONObject request = new JSONObject();
+        request.put("state", state.name().toLowerCase(Locale.ENGLISH));
+        request.put("target_url", targetUrl);
+        request.put("description", description);
+        request.put("context", context);
+
+        URL url = new URL(base() + "/repos/" + fullName + "/statuses/" + sha);
+        HttpURLConnection connection = connector.connect(url);
+        connection.setRequestMethod("POST");
+        connection.setDoOutput(true);
+        connection.setRequestProperty("Authorization", authorization);
+        connection.setRequestProperty("Content-Type", "application/json");
+        connection.setRequestProperty("Accept", "application/vnd.github.v3+json");
+        try (OutputStream out = connection.getOutputStream()) {
+            out.write(request.toString().getBytes(StandardCharsets.UTF_8));
+        }
+        int code = connection.getResponseCode();
+        lastRateLimit = parseRateLimit(connection);
+        if (code / 100 == 2) {
+            IOUtils.closeQuietly(connection.getInputStream());
+            return;
+        }
+        String body = null;
+        try (InputStream error = connection.getErrorStream()) {
+            if (error != null) {
+                body = IOUtils.toString(error, StandardCharsets.UTF_8.name());
+            }
+        }
+        HttpException failure = new HttpException(body == null ? "GitHub status request failed" : body, code,
+                connection.getResponseMessage(), url.toString());
+        if (code == HttpURLConnection.HTTP_FORBIDDEN || code == 429) {
+            if ("0".equals(connection.getHeaderField("X-RateLimit-Remaining"))) {
+                RetryPolicy.RATE_LIMIT_HANDLER.onError(failure, connection);
+            } else if (connection.getHeaderField("Retry-After") != null
+                    || (body != null && (body.contains("abuse") || body.contains("secondary rate limit")))) {
+                RetryPolicy.ABUSE_LIMIT_HANDLER.onError(failure, connection);
+            }
+        }
+        throw failure;
+    }
+
+    /**
+     * @return the rate limit reported by GitHub in the last response, null if unknown
+     */
+    @CheckForNull
+    public GHRateLimit lastRateLimit() {
+        return lastRateLimit;
+    }
+
+    private String base() {
+        String base = gitApiUrl == null || gitApiUrl.isEmpty() ? GitHubStatusNotificationStep.GITHUB_API_URL : gitApiUrl;
+        while (base.endsWith("/")) {
+            base = base.substring(0, base.length() - 1);
+        }
+        return base;
+    }
+
+    @CheckForNull
+    private static GHRateLimit parseRateLimit(HttpURLConnection connection) {
+        String limit = connection.getHeaderField("X-RateLimit-Limit");
+        String remaining = connection.getHeaderField("X-RateLimit-Remaining");
+        String reset = connection.getHeaderField("X-RateLimit-Reset");
+        if (limit == null || remaining == null || reset == null) {
+            return null;
+        }
+        try {
+            GHRateLimit rateLimit = new GHRateLimit();
+            rateLimit.limit = Integer.parseInt(limit.trim());
+            rateLimit.remaining = Integer.parseInt(remaining.trim());
+            rateLimit.reset = new Date(TimeUnit.SECONDS.toMillis(Long.parseLong(reset.trim())));
+            return rateLimit;
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+}
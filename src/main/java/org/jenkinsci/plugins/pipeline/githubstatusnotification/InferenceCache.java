@@ -0,0 +1,141 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.pipeline.githubstatusnotification;
+
+import hudson.Extension;
+import hudson.XmlFile;
+import hudson.model.Item;
+import hudson.model.Saveable;
+import hudson.model.listeners.SaveableListener;
+import jenkins.model.Jenkins;
+import jenkins.scm.api.SCMSourceOwner;
+import org.jenkinsci.plugins.github_branch_source.GitHubSCMSource;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Function;
+
+/**
+ * Remembers what was inferred from the GitHub SCM source of each multibranch project, and the URL of each run, so
+ * steps called many times by the same run do not inspect the project again and again.
+ * <p>
+ * The data of a project is discarded whenever it is saved, as that is how changes to its SCM sources are persisted.
+ */
+@Extension
+public class InferenceCache extends SaveableListener {
+
+    /**
+     * Maximum number of run URLs kept in memory
+     */
+    static final int MAX_RUN_URLS = Integer.getInteger(InferenceCache.class.getName() + ".maxRunUrls", 1000);
+
+    private final ConcurrentMap<String, SourceData> sources = new ConcurrentHashMap<>();
+
+    private final Map<String, String> runUrls = Collections.synchronizedMap(new LinkedHashMap<String, String>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+            return size() > MAX_RUN_URLS;
+        }
+    });
+
+    @Nonnull
+    public static InferenceCache get() {
+        return Jenkins.getActiveInstance().getExtensionList(InferenceCache.class).get(0);
+    }
+
+    /**
+     * @return the data inferred from the GitHub SCM source of the given project, computing it if needed
+     */
+    @Nonnull
+    SourceData getSourceData(@Nonnull SCMSourceOwner owner, @Nonnull Function<SCMSourceOwner, GitHubSCMSource> lookup) {
+        return sources.computeIfAbsent(owner.getFullName(), name -> {
+            GitHubSCMSource source = lookup.apply(owner);
+            return source == null ? SourceData.NONE : new SourceData(source);
+        });
+    }
+
+    @Nonnull
+    String getRunUrl(@Nonnull String runId, @Nonnull Function<String, String> lookup) {
+        String url = runUrls.get(runId);
+        if (url == null) {
+            url = lookup.apply(runId);
+            runUrls.put(runId, url);
+        }
+        return url;
+    }
+
+    @Override
+    public void onChange(Saveable o, XmlFile file) {
+        if (o instanceof SCMSourceOwner) {
+            sources.remove(((Item) o).getFullName());
+        }
+    }
+
+    /**
+     * What is needed from a GitHub SCM source to notify its commits
+     */
+    static final class SourceData {
+
+        static final SourceData NONE = new SourceData(null);
+
+        private final boolean found;
+        private final String credentialsId;
+        private final String repoOwner;
+        private final String repository;
+        private final String apiUri;
+
+        private SourceData(@CheckForNull GitHubSCMSource source) {
+            this.found = source != null;
+            this.credentialsId = source == null ? null : source.getScanCredentialsId();
+            this.repoOwner = source == null ? null : source.getRepoOwner();
+            this.repository = source == null ? null : source.getRepository();
+            this.apiUri = source == null ? null : source.getApiUri();
+        }
+
+        boolean isFound() {
+            return found;
+        }
+
+        String getCredentialsId() {
+            return credentialsId;
+        }
+
+        String getRepoOwner() {
+            return repoOwner;
+        }
+
+        String getRepository() {
+            return repository;
+        }
+
+        String getApiUri() {
+            return apiUri;
+        }
+    }
+}
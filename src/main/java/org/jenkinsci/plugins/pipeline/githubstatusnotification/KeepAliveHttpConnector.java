@@ -0,0 +1,78 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.pipeline.githubstatusnotification;
+
+import org.kohsuke.github.HttpConnector;
+
+import javax.annotation.Nonnull;
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.Proxy;
+import java.net.URL;
+
+/**
+ * Opens the connections of the GitHub clients with the same timeouts and keep alive headers, whatever credentials
+ * they use.
+ * <p>
+ * Sockets are not pooled here: {@link HttpURLConnection} keeps them alive and reuses them on its own whenever the
+ * endpoint, proxy and TLS socket factory match, up to the standard {@code http.maxConnections} idle sockets per
+ * endpoint. GET requests are answered through the {@link ConditionalResponseCache}.
+ */
+public class KeepAliveHttpConnector implements HttpConnector {
+
+    /**
+     * Connect timeout of every connection, in milliseconds
+     */
+    static final int CONNECT_TIMEOUT_MILLIS = Integer.getInteger(KeepAliveHttpConnector.class.getName() + ".connectTimeoutMillis", 10000);
+    /**
+     * Read timeout of every connection, in milliseconds
+     */
+    static final int READ_TIMEOUT_MILLIS = Integer.getInteger(KeepAliveHttpConnector.class.getName() + ".readTimeoutMillis", 60000);
+
+    private final Proxy proxy;
+
+    public KeepAliveHttpConnector(@Nonnull Proxy proxy) {
+        this.proxy = proxy;
+    }
+
+    @Override
+    public HttpURLConnection connect(URL url) throws IOException {
+        HttpURLConnection connection = openUncached(url);
+        return ConditionalResponseCache.ENABLED
+                ? new CachingHttpURLConnection(connection, ConditionalResponseCache.get()) : connection;
+    }
+
+    /**
+     * Opens a connection bypassing the {@link ConditionalResponseCache}, for requests whose responses are never read
+     * again
+     */
+    @Nonnull
+    public HttpURLConnection openUncached(@Nonnull URL url) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection(proxy);
+        connection.setConnectTimeout(CONNECT_TIMEOUT_MILLIS);
+        connection.setReadTimeout(READ_TIMEOUT_MILLIS);
+        connection.setRequestProperty("Connection", "keep-alive");
+        return connection;
+    }
+}
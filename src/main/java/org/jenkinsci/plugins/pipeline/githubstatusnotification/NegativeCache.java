@@ -0,0 +1,160 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.pipeline.githubstatusnotification;
+
+import hudson.Extension;
+import jenkins.model.Jenkins;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Remembers for a short while the credentials GitHub rejected and the repositories and commits it could not find,
+ * so a misconfigured job fails locally instead of asking GitHub again on every build and every form check.
+ * <p>
+ * Failures are keyed by the token fingerprint and the API endpoint, plus the repository and commit when relevant, so
+ * a rotated token or a fixed typo misses the cache right away. Entries are also discarded when the credentials they
+ * were recorded for change, see {@link #invalidate(String)}.
+ */
+@Extension
+public class NegativeCache {
+
+    /**
+     * How long a failure is remembered, in seconds
+     */
+    static final long TTL_SECONDS = Long.getLong(NegativeCache.class.getName() + ".ttlSeconds", 60);
+    /**
+     * Maximum number of failures kept in memory
+     */
+    static final int MAX_SIZE = Integer.getInteger(NegativeCache.class.getName() + ".maxSize", 1000);
+
+    private final Map<String, Entry> failures = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+            return size() > MAX_SIZE;
+        }
+    };
+    private final AtomicLong hitCount = new AtomicLong();
+
+    @Nonnull
+    public static NegativeCache get() {
+        return Jenkins.getActiveInstance().getExtensionList(NegativeCache.class).get(0);
+    }
+
+    @Nonnull
+    static String credentialsKey(@Nonnull GitHubClientCache.Key key) {
+        return key.getFingerprint() + "@" + key.getGitApiUrl();
+    }
+
+    /**
+     * @param repository the repository as given to the step, either its name or its {@code owner/name}
+     */
+    @Nonnull
+    static String repositoryKey(@Nonnull GitHubClientCache.Key key, String account, String repository) {
+        String fullName = repository == null ? null : GitHubStatusNotificationStep.getRepoFullName(account, repository);
+        return credentialsKey(key) + "|" + (fullName == null ? "*/" + repository : fullName);
+    }
+
+    /**
+     * @param repository the full name of an existing repository
+     */
+    @Nonnull
+    static String commitKey(@Nonnull GitHubClientCache.Key key, String repository, String sha) {
+        return credentialsKey(key) + "|" + repository + "@" + sha;
+    }
+
+    /**
+     * @throws IllegalArgumentException with the recorded message if a failure is remembered for the key
+     */
+    public void check(@Nonnull String key) {
+        String message = getFailure(key);
+        if (message != null) {
+            throw new IllegalArgumentException(message);
+        }
+    }
+
+    /**
+     * @return the message of the failure remembered for the key, null if there is none
+     */
+    @CheckForNull
+    public synchronized String getFailure(@Nonnull String key) {
+        Entry entry = failures.get(key);
+        if (entry == null) {
+            return null;
+        }
+        if (entry.isExpired()) {
+            failures.remove(key);
+            return null;
+        }
+        hitCount.incrementAndGet();
+        return entry.message;
+    }
+
+    public synchronized void record(@Nonnull String key, @Nonnull String credentialsId, @Nonnull String message) {
+        failures.put(key, new Entry(credentialsId, message));
+    }
+
+    /**
+     * Forgets every failure recorded for the given credentials
+     */
+    public synchronized void invalidate(@Nonnull String credentialsId) {
+        failures.values().removeIf(entry -> entry.credentialsId.equals(credentialsId));
+    }
+
+    public synchronized void invalidateAll() {
+        failures.clear();
+    }
+
+    public synchronized int size() {
+        return failures.size();
+    }
+
+    /**
+     * @return how many calls to GitHub were avoided
+     */
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    private static final class Entry {
+
+        private final String credentialsId;
+        private final String message;
+        private final long expiresAt;
+
+        private Entry(String credentialsId, String message) {
+            this.credentialsId = credentialsId;
+            this.message = message;
+            this.expiresAt = System.nanoTime() + TimeUnit.SECONDS.toNanos(TTL_SECONDS);
+        }
+
+        private boolean isExpired() {
+            return System.nanoTime() - expiresAt >= 0;
+        }
+    }
+}
@@ -0,0 +1,329 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.pipeline.githubstatusnotification;
+
+import hudson.Extension;
+import hudson.init.Terminator;
+import hudson.model.Item;
+import hudson.security.ACL;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+import jenkins.model.Jenkins;
+import jenkins.util.Timer;
+import org.acegisecurity.context.SecurityContext;
+import org.acegisecurity.context.SecurityContextHolder;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Delivers notifications in the background for steps running in asynchronous mode.
+ * <p>
+ * Steps hand their notification over and return immediately, a small pool of threads sends them to GitHub retrying
+ * transient failures with an increasing delay, transient as defined by {@link RetryPolicy#isTransient}. Failures
+ * caused by the configuration, like invalid credentials or an unknown repository, are not retried. As the build may
+ * be over by then every outcome is only logged.
+ * <p>
+ * Only the latest notification for a given repository, commit and context is kept while waiting to be sent, any
+ * earlier one is superseded and never reaches GitHub as reviewers would only see the last one anyway. At most one
+ * notification per key is being sent at any time so they can not be reordered.
+ * <p>
+ * Accepted notifications are recorded in the {@link NotificationOutbox} until they are done with, so the ones still
+ * queued when the controller stops are sent once it is back.
+ */
+@Extension
+public class NotificationDispatcher {
+
+    private static final Logger LOGGER = Logger.getLogger(NotificationDispatcher.class.getName());
+
+    /**
+     * Number of threads sending notifications
+     */
+    static final int THREADS = Integer.getInteger(NotificationDispatcher.class.getName() + ".threads", 4);
+    /**
+     * How many times a notification is tried before giving up
+     */
+    static final int MAX_ATTEMPTS = Integer.getInteger(NotificationDispatcher.class.getName() + ".maxAttempts", 5);
+    /**
+     * Delay before the first retry, doubled on every following one
+     */
+    static final long RETRY_DELAY_MILLIS = Long.getLong(NotificationDispatcher.class.getName() + ".retryDelayMillis", 5000);
+
+    private final ExecutorService executor = Executors.newFixedThreadPool(THREADS,
+            new NamingThreadFactory(new DaemonThreadFactory(), "GitHubNotificationDispatcher"));
+
+    /**
+     * The latest notification waiting to be sent for each key
+     */
+    private final Map<String, Queued> pending = new HashMap<>();
+    /**
+     * Keys with a notification currently being sent
+     */
+    private final Set<String> inFlight = new HashSet<>();
+
+    private final AtomicLong supersededCount = new AtomicLong();
+    private final AtomicLong deliveredCount = new AtomicLong();
+    private final AtomicLong failedCount = new AtomicLong();
+    private final AtomicLong totalLatencyMillis = new AtomicLong();
+    private volatile long lastLatencyMillis;
+
+    @Nonnull
+    public static NotificationDispatcher get() {
+        return Jenkins.getActiveInstance().getExtensionList(NotificationDispatcher.class).get(0);
+    }
+
+    @Terminator
+    public static void shutdown() {
+        get().executor.shutdown();
+    }
+
+    /**
+     * Queues a notification to be sent as soon as possible, replacing any notification for the same repository,
+     * commit and context that has not been sent yet
+     */
+    public void submit(@Nonnull GitHubStatusNotification notification) {
+        long id = 0;
+        try {
+            id = NotificationOutbox.get().accept(notification);
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Unable to record " + notification + " in the outbox, it will be lost on restart", e);
+        }
+        resubmit(id, notification);
+    }
+
+    /**
+     * Queues a notification already recorded in the outbox
+     *
+     * @param id the outbox id of the notification
+     */
+    void resubmit(long id, @Nonnull GitHubStatusNotification notification) {
+        String key = getKey(notification);
+        synchronized (pending) {
+            // a newer notification starts over with its own attempts, even if the one it replaces was being retried
+            Queued superseded = pending.put(key, new Queued(id, notification, 1, 0));
+            if (superseded != null) {
+                supersededCount.incrementAndGet();
+                NotificationOutbox.get().complete(superseded.id);
+                if (superseded.notBefore == 0) {
+                    // already scheduled
+                    return;
+                }
+            }
+            if (inFlight.contains(key)) {
+                // scheduled once the notification being sent is done
+                return;
+            }
+        }
+        schedule(key, null);
+    }
+
+    /**
+     * Delivers the notification waiting for the given key on the dispatcher threads
+     *
+     * @param due the retry being scheduled, null to only deliver a notification that is not waiting for a retry
+     */
+    private void schedule(String key, @CheckForNull Queued due) {
+        if (executor.isShutdown()) {
+            // the notification stays in the outbox and is sent after the restart
+            return;
+        }
+        try {
+            executor.execute(() -> deliver(key, due));
+        } catch (RejectedExecutionException e) {
+            LOGGER.log(Level.FINE, "Not delivering " + key + ", shutting down", e);
+        }
+    }
+
+    private void deliver(String key, @CheckForNull Queued due) {
+        Queued queued;
+        synchronized (pending) {
+            queued = pending.get(key);
+            if (queued == null || inFlight.contains(key) || (queued.notBefore > 0 && queued != due)) {
+                // sent already, or its retry is scheduled
+                return;
+            }
+            pending.remove(key);
+            inFlight.add(key);
+        }
+        GitHubStatusNotification notification = queued.notification;
+        int attempt = queued.attempt;
+        boolean retry = false;
+        long retryAfter = 0;
+        int nextAttempt = attempt + 1;
+        SecurityContext previous = ACL.impersonate(ACL.SYSTEM);
+        try {
+            Item item = Jenkins.getActiveInstance().getItemByFullName(notification.getItemFullName());
+            if (item == null) {
+                throw new IllegalArgumentException("Item " + notification.getItemFullName() + " no longer exists");
+            }
+            if (GitHubStatusNotificationStep.send(notification, item)) {
+                long latency = System.currentTimeMillis() - notification.getCreatedAt();
+                lastLatencyMillis = latency;
+                totalLatencyMillis.addAndGet(latency);
+                deliveredCount.incrementAndGet();
+                LOGGER.log(Level.FINE, "Delivered {0} after {1} ms", new Object[]{notification, latency});
+            } else {
+                LOGGER.log(Level.FINE, "Dropped {0} to save rate limit budget", notification);
+            }
+        } catch (IllegalArgumentException e) {
+            giveUp(notification, e);
+        } catch (CircuitBreaker.CircuitOpenException e) {
+            // waiting for the endpoint to recover is not a failed attempt
+            retry = true;
+            retryAfter = Math.max(1, e.getRemainingOpenMillis());
+            nextAttempt = attempt;
+        } catch (RetryPolicy.PacedException e) {
+            // neither is waiting for the rate limit
+            retry = true;
+            retryAfter = e.getDelayMillis();
+            nextAttempt = attempt;
+        } catch (IOException e) {
+            if (attempt < MAX_ATTEMPTS && RetryPolicy.isTransient(e)) {
+                retry = true;
+                if (e instanceof RetryPolicy.RetryAfterException) {
+                    retryAfter = ((RetryPolicy.RetryAfterException) e).getDelayMillis();
+                }
+                LOGGER.log(Level.FINE, "Failed to deliver " + notification + ", attempt " + attempt, e);
+            } else {
+                giveUp(notification, e);
+            }
+        } catch (RuntimeException e) {
+            giveUp(notification, e);
+        } finally {
+            SecurityContextHolder.setContext(previous);
+        }
+        if (!retry) {
+            NotificationOutbox.get().complete(queued.id);
+        }
+        Queued retried = null;
+        long delay = 0;
+        synchronized (pending) {
+            inFlight.remove(key);
+            if (pending.containsKey(key)) {
+                if (retry) {
+                    supersededCount.incrementAndGet();
+                    NotificationOutbox.get().complete(queued.id);
+                }
+            } else if (retry) {
+                delay = retryAfter > 0 ? retryAfter : RETRY_DELAY_MILLIS << (attempt - 1);
+                retried = new Queued(queued.id, notification, nextAttempt, System.currentTimeMillis() + delay);
+                pending.put(key, retried);
+            } else {
+                return;
+            }
+        }
+        if (retried != null) {
+            Queued due = retried;
+            Timer.get().schedule(() -> schedule(key, due), delay, TimeUnit.MILLISECONDS);
+        } else {
+            schedule(key, null);
+        }
+    }
+
+    private void giveUp(GitHubStatusNotification notification, Exception e) {
+        failedCount.incrementAndGet();
+        LOGGER.log(Level.WARNING, "Unable to deliver " + notification, e);
+    }
+
+    /**
+     * A queued notification along with its outbox id and delivery attempts
+     */
+    private static final class Queued {
+
+        private final long id;
+        private final GitHubStatusNotification notification;
+        /**
+         * The attempt the next delivery will be
+         */
+        private final int attempt;
+        /**
+         * When a retry is due, in milliseconds since the epoch, 0 if the notification can be sent right away
+         */
+        private final long notBefore;
+
+        private Queued(long id, GitHubStatusNotification notification, int attempt, long notBefore) {
+            this.id = id;
+            this.notification = notification;
+            this.attempt = attempt;
+            this.notBefore = notBefore;
+        }
+    }
+
+    /**
+     * Notifications with the same key replace each other while waiting to be sent
+     */
+    @Nonnull
+    static String getKey(@Nonnull GitHubStatusNotification notification) {
+        return notification.getGitApiUrl() + "|" + notification.getAccount() + "|" + notification.getRepo() + "|"
+                + notification.getSha() + "|" + notification.getContext();
+    }
+
+    /**
+     * @return the number of notifications accepted but not yet delivered nor discarded
+     */
+    public int getQueueDepth() {
+        synchronized (pending) {
+            return pending.size() + inFlight.size();
+        }
+    }
+
+    public long getDeliveredCount() {
+        return deliveredCount.get();
+    }
+
+    public long getFailedCount() {
+        return failedCount.get();
+    }
+
+    /**
+     * @return the number of notifications replaced by a newer one before being sent
+     */
+    public long getSupersededCount() {
+        return supersededCount.get();
+    }
+
+    /**
+     * @return the time between the step accepting the last delivered notification and GitHub acknowledging it
+     */
+    public long getLastLatencyMillis() {
+        return lastLatencyMillis;
+    }
+
+    public long getAverageLatencyMillis() {
+        long delivered = deliveredCount.get();
+        return delivered == 0 ? 0 : totalLatencyMillis.get() / delivered;
+    }
+}
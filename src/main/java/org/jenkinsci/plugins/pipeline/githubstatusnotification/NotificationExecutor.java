@@ -0,0 +1,293 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.pipeline.githubstatusnotification;
+
+import hudson.Extension;
+import hudson.init.Terminator;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+import jenkins.model.Jenkins;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Bounded pool running the GitHub I/O of the notification steps.
+ * <p>
+ * Steps used to run on the shared unbounded pool of non blocking step executions, so a burst of parallel branches
+ * notifying a slow GitHub could start hundreds of threads all blocked on sockets. This pool acts as a bulkhead: at
+ * most {@link #THREADS} notifications are processed at the same time, at most {@link #QUEUE_SIZE} more wait for a
+ * thread, and any other is handled according to the {@link RejectionPolicy} in use. Submitters are the CPS thread
+ * starting a step and the {@link jenkins.util.Timer} threads running retries, shared with the rest of Jenkins, so they
+ * never wait for room: by default a rejected {@code githubNotify} is handed to the {@link NotificationDispatcher}. A
+ * notification thread submitting more work while the pool is full runs it itself.
+ * <p>
+ * On JVMs supporting virtual threads the {@link Backend#VIRTUAL} backend can be selected instead, running every
+ * notification on its own virtual thread so that a blocked socket does not hold a platform thread. It is still a
+ * bulkhead: at most {@link #MAX_VIRTUAL_THREADS} notifications are in flight and any other is rejected. On older JVMs
+ * the platform pool is used.
+ */
+@Extension
+public class NotificationExecutor {
+
+    /**
+     * Maximum number of notifications processed at the same time
+     */
+    static final int THREADS = Integer.getInteger(NotificationExecutor.class.getName() + ".threads", 16);
+    /**
+     * Maximum number of notifications waiting for a thread
+     */
+    static final int QUEUE_SIZE = Integer.getInteger(NotificationExecutor.class.getName() + ".queueSize", 1000);
+    /**
+     * What happens to a notification arriving when the queue is full
+     */
+    static final RejectionPolicy REJECTION_POLICY = RejectionPolicy.valueOf(
+            System.getProperty(NotificationExecutor.class.getName() + ".rejectionPolicy", RejectionPolicy.QUEUE_ASYNC.name()));
+
+    /**
+     * Maximum number of notifications in flight with the {@link Backend#VIRTUAL} backend
+     */
+    static final int MAX_VIRTUAL_THREADS = Integer.getInteger(NotificationExecutor.class.getName() + ".maxVirtualThreads", 5000);
+    /**
+     * Kind of threads running the notifications
+     */
+    static final Backend BACKEND = Backend.valueOf(
+            System.getProperty(NotificationExecutor.class.getName() + ".backend", Backend.PLATFORM.name()));
+
+    private static final Logger LOGGER = Logger.getLogger(NotificationExecutor.class.getName());
+
+    public enum Backend {
+        /**
+         * A fixed pool of {@link #THREADS} platform threads with a queue of {@link #QUEUE_SIZE}
+         */
+        PLATFORM,
+        /**
+         * A virtual thread per notification, up to {@link #MAX_VIRTUAL_THREADS}, when the JVM supports them
+         */
+        VIRTUAL
+    }
+
+    public enum RejectionPolicy {
+        /**
+         * The step fails
+         */
+        FAIL,
+        /**
+         * The notification is handed to the {@link NotificationDispatcher} and the step succeeds, when possible
+         */
+        QUEUE_ASYNC
+    }
+
+    /**
+     * Set on the threads running notifications
+     */
+    private static final ThreadLocal<Boolean> NOTIFICATION_THREAD = new ThreadLocal<>();
+
+    private final RejectionPolicy rejectionPolicy;
+    private final int maxVirtualThreads;
+    private final ExecutorService executor;
+    /**
+     * The platform pool, null when running on virtual threads
+     */
+    @CheckForNull
+    private final ThreadPoolExecutor platformPool;
+    /**
+     * Bounds the notifications in flight on virtual threads, null when running on the platform pool
+     */
+    @CheckForNull
+    private final Semaphore virtualPermits;
+    private final AtomicLong virtualCompletedCount = new AtomicLong();
+    private final AtomicLong rejectedCount = new AtomicLong();
+
+    public NotificationExecutor() {
+        this(THREADS, QUEUE_SIZE, MAX_VIRTUAL_THREADS, BACKEND, REJECTION_POLICY);
+    }
+
+    NotificationExecutor(int threads, int queueSize, int maxVirtualThreads, @Nonnull Backend backend,
+                         @Nonnull RejectionPolicy rejectionPolicy) {
+        this.rejectionPolicy = rejectionPolicy;
+        this.maxVirtualThreads = maxVirtualThreads;
+        ExecutorService virtual = backend == Backend.VIRTUAL ? newVirtualThreadExecutor() : null;
+        if (virtual != null) {
+            executor = virtual;
+            platformPool = null;
+            virtualPermits = new Semaphore(maxVirtualThreads);
+        } else {
+            if (backend == Backend.VIRTUAL) {
+                LOGGER.log(Level.WARNING, "Virtual threads are not supported by this JVM, using {0} platform threads", threads);
+            }
+            platformPool = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<>(queueSize),
+                    new NamingThreadFactory(new DaemonThreadFactory(), "GitHubNotificationExecutor"),
+                    this::onFull);
+            platformPool.allowCoreThreadTimeOut(true);
+            executor = platformPool;
+            virtualPermits = null;
+        }
+    }
+
+    /**
+     * Looked up reflectively as the plugin targets Java 8
+     *
+     * @return a virtual thread per task executor, or null if the JVM does not support them
+     */
+    @CheckForNull
+    static ExecutorService newVirtualThreadExecutor() {
+        try {
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            builder = builderClass.getMethod("name", String.class, long.class)
+                    .invoke(builder, "GitHubNotificationExecutor-", 0L);
+            ThreadFactory factory = (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+            return (ExecutorService) Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class)
+                    .invoke(null, factory);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            LOGGER.log(Level.FINE, "Virtual threads not available", e);
+            return null;
+        }
+    }
+
+    @Nonnull
+    public static NotificationExecutor get() {
+        return Jenkins.getActiveInstance().getExtensionList(NotificationExecutor.class).get(0);
+    }
+
+    @Terminator
+    public static void shutdown() {
+        get().executor.shutdownNow();
+    }
+
+    /**
+     * Never waits for room, so it can be called from the CPS thread or a {@link jenkins.util.Timer} thread
+     *
+     * @throws RejectedExecutionException if the pool and its queue are full
+     */
+    @Nonnull
+    public Future<?> submit(@Nonnull Runnable task) {
+        Runnable marked = () -> {
+            // restored rather than removed, as a task run inline by a notification thread must not unmark it
+            Boolean previous = NOTIFICATION_THREAD.get();
+            NOTIFICATION_THREAD.set(Boolean.TRUE);
+            try {
+                task.run();
+            } finally {
+                if (previous == null) {
+                    NOTIFICATION_THREAD.remove();
+                }
+            }
+        };
+        if (virtualPermits == null) {
+            try {
+                return executor.submit(marked);
+            } catch (RejectedExecutionException e) {
+                rejectedCount.incrementAndGet();
+                throw e;
+            }
+        }
+        if (!virtualPermits.tryAcquire()) {
+            if (isNotificationThread()) {
+                FutureTask<?> inline = new FutureTask<>(marked, null);
+                inline.run();
+                return inline;
+            }
+            rejectedCount.incrementAndGet();
+            throw new RejectedExecutionException(maxVirtualThreads + " GitHub notifications already in flight");
+        }
+        try {
+            return executor.submit(() -> {
+                try {
+                    marked.run();
+                } finally {
+                    virtualCompletedCount.incrementAndGet();
+                    virtualPermits.release();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            virtualPermits.release();
+            rejectedCount.incrementAndGet();
+            throw e;
+        }
+    }
+
+    /**
+     * Called by the platform pool when its queue is full
+     */
+    private void onFull(Runnable task, ThreadPoolExecutor pool) {
+        if (pool.isShutdown()) {
+            throw new RejectedExecutionException("GitHub notifications are shut down");
+        }
+        if (isNotificationThread()) {
+            task.run();
+            return;
+        }
+        throw new RejectedExecutionException(pool.getQueue().size() + " GitHub notifications already waiting for a thread");
+    }
+
+    private static boolean isNotificationThread() {
+        return NOTIFICATION_THREAD.get() != null;
+    }
+
+    /**
+     * @return the backend actually in use, which is {@link Backend#PLATFORM} if virtual threads are not supported
+     */
+    @Nonnull
+    public Backend getBackend() {
+        return virtualPermits == null ? Backend.PLATFORM : Backend.VIRTUAL;
+    }
+
+    @Nonnull
+    public RejectionPolicy getRejectionPolicy() {
+        return rejectionPolicy;
+    }
+
+    public int getActiveCount() {
+        return virtualPermits == null ? platformPool.getActiveCount()
+                : maxVirtualThreads - virtualPermits.availablePermits();
+    }
+
+    public int getQueuedCount() {
+        return virtualPermits == null ? platformPool.getQueue().size() : 0;
+    }
+
+    public long getCompletedCount() {
+        return virtualPermits == null ? platformPool.getCompletedTaskCount() : virtualCompletedCount.get();
+    }
+
+    public long getRejectedCount() {
+        return rejectedCount.get();
+    }
+}
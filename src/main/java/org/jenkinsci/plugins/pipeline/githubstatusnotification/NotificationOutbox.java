@@ -0,0 +1,379 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.pipeline.githubstatusnotification;
+
+import hudson.Extension;
+import hudson.init.InitMilestone;
+import hudson.init.Initializer;
+import jenkins.model.Jenkins;
+import org.kohsuke.github.GHCommitState;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * Append only journal of the notifications accepted for background delivery, so they survive a controller restart.
+ * <p>
+ * Every accepted notification is appended to {@code JENKINS_HOME/github-notify-outbox/journal} and synced to disk
+ * before {@link #accept} returns, concurrent callers share a single sync. Once a notification has been delivered, or
+ * superseded or given up, a completion record is appended without waiting for it to reach the disk, in the worst case
+ * a status is sent twice after a crash. On startup the notifications without a completion record are handed back to
+ * the {@link NotificationDispatcher} and the journal is compacted, it is compacted again whenever it grows over
+ * {@link #MAX_JOURNAL_BYTES}.
+ * <p>
+ * Each record is framed by its length and a CRC32 checksum so a record torn by a crash is detected and discarded.
+ */
+@Extension
+public class NotificationOutbox {
+
+    private static final Logger LOGGER = Logger.getLogger(NotificationOutbox.class.getName());
+
+    /**
+     * Journal size over which delivered records are purged
+     */
+    static final long MAX_JOURNAL_BYTES = Long.getLong(NotificationOutbox.class.getName() + ".maxJournalBytes", 8 * 1024 * 1024);
+
+    private static final byte ACCEPTED = 1;
+    private static final byte COMPLETED = 2;
+    private static final int HEADER_BYTES = 8;
+
+    /**
+     * Notifications accepted and not yet completed, by id
+     */
+    private final Map<Long, GitHubStatusNotification> pending = new LinkedHashMap<>();
+    /**
+     * Notifications left undelivered by the previous run, until handed back to the dispatcher
+     */
+    private Map<Long, GitHubStatusNotification> undelivered;
+    private final Object syncLock = new Object();
+    @CheckForNull
+    private final File journal;
+    private final long maxJournalBytes;
+    private FileChannel channel;
+    private long nextId = 1;
+    private long writtenSequence;
+    private long syncedSequence;
+
+    public NotificationOutbox() {
+        this(null, MAX_JOURNAL_BYTES);
+    }
+
+    /**
+     * @param journal the journal file, null for the one in {@code JENKINS_HOME}
+     */
+    NotificationOutbox(@CheckForNull File journal, long maxJournalBytes) {
+        this.journal = journal;
+        this.maxJournalBytes = maxJournalBytes;
+    }
+
+    @Nonnull
+    public static NotificationOutbox get() {
+        return Jenkins.getActiveInstance().getExtensionList(NotificationOutbox.class).get(0);
+    }
+
+    /**
+     * Hands the notifications left undelivered by the previous run back to the dispatcher
+     */
+    @Initializer(after = InitMilestone.JOB_LOADED)
+    public static void replay() {
+        Map<Long, GitHubStatusNotification> undelivered;
+        try {
+            undelivered = get().takeUndelivered();
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Unable to read the GitHub notification outbox", e);
+            return;
+        }
+        if (!undelivered.isEmpty()) {
+            LOGGER.log(Level.INFO, "Resending {0} GitHub notifications accepted before the restart", undelivered.size());
+        }
+        NotificationDispatcher dispatcher = NotificationDispatcher.get();
+        for (Map.Entry<Long, GitHubStatusNotification> entry : undelivered.entrySet()) {
+            dispatcher.resubmit(entry.getKey(), entry.getValue());
+        }
+    }
+
+    /**
+     * Returns the notifications left undelivered by the previous run, only once, even when notifications were
+     * accepted before the outbox was replayed
+     */
+    @Nonnull
+    synchronized Map<Long, GitHubStatusNotification> takeUndelivered() throws IOException {
+        ensureOpen();
+        Map<Long, GitHubStatusNotification> taken = undelivered;
+        undelivered = Collections.emptyMap();
+        return taken;
+    }
+
+    /**
+     * Durably records a notification
+     *
+     * @return the id to complete the notification with
+     */
+    public long accept(@Nonnull GitHubStatusNotification notification) throws IOException {
+        long id;
+        long sequence;
+        synchronized (this) {
+            ensureOpen();
+            id = nextId++;
+            write(acceptedRecord(id, notification));
+            pending.put(id, notification);
+            sequence = ++writtenSequence;
+        }
+        sync(sequence);
+        return id;
+    }
+
+    /**
+     * Records that a notification no longer needs to be delivered
+     */
+    public synchronized void complete(long id) {
+        if (pending.remove(id) == null) {
+            return;
+        }
+        try {
+            ensureOpen();
+            write(completedRecord(id));
+            writtenSequence++;
+            if (channel.size() > maxJournalBytes) {
+                compact();
+            }
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Unable to record the completion of GitHub notification " + id, e);
+        }
+    }
+
+    public synchronized int getPendingCount() {
+        return pending.size();
+    }
+
+    /**
+     * Waits until every record up to the given one is on disk. The first caller syncs everything written so far, the
+     * ones waiting meanwhile usually find their record already synced.
+     */
+    private void sync(long sequence) throws IOException {
+        synchronized (syncLock) {
+            if (syncedSequence >= sequence) {
+                return;
+            }
+            long target;
+            FileChannel toSync;
+            synchronized (this) {
+                target = writtenSequence;
+                toSync = channel;
+            }
+            try {
+                toSync.force(false);
+            } catch (ClosedChannelException e) {
+                // the journal was compacted meanwhile, compaction syncs every pending record
+            }
+            syncedSequence = target;
+        }
+    }
+
+    private void ensureOpen() throws IOException {
+        if (channel == null) {
+            pending.clear();
+            File journal = getJournal();
+            if (journal.exists()) {
+                read(journal.toPath());
+            }
+            compact();
+            if (undelivered == null) {
+                undelivered = new LinkedHashMap<>(pending);
+            }
+        }
+    }
+
+    private void read(Path journal) throws IOException {
+        try (InputStream raw = Files.newInputStream(journal);
+             DataInputStream in = new DataInputStream(raw)) {
+            while (true) {
+                int length;
+                long checksum;
+                byte[] payload;
+                try {
+                    length = in.readInt();
+                    checksum = in.readInt() & 0xffffffffL;
+                    if (length <= 0 || length > maxJournalBytes) {
+                        LOGGER.log(Level.WARNING, "Discarding the corrupted end of the GitHub notification outbox");
+                        return;
+                    }
+                    payload = new byte[length];
+                    in.readFully(payload);
+                } catch (EOFException e) {
+                    return;
+                }
+                CRC32 crc = new CRC32();
+                crc.update(payload);
+                if (crc.getValue() != checksum) {
+                    LOGGER.log(Level.WARNING, "Discarding the corrupted end of the GitHub notification outbox");
+                    return;
+                }
+                DataInputStream record = new DataInputStream(new ByteArrayInputStream(payload));
+                byte type = record.readByte();
+                long id = record.readLong();
+                nextId = Math.max(nextId, id + 1);
+                if (type == ACCEPTED) {
+                    pending.put(id, readNotification(record));
+                } else if (type == COMPLETED) {
+                    pending.remove(id);
+                }
+            }
+        }
+    }
+
+    /**
+     * Rewrites the journal with only the pending notifications
+     */
+    private void compact() throws IOException {
+        File journal = getJournal();
+        File dir = journal.getParentFile();
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Unable to create " + dir);
+        }
+        Path compacted = new File(dir, journal.getName() + ".tmp").toPath();
+        try (FileChannel out = FileChannel.open(compacted, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            for (Map.Entry<Long, GitHubStatusNotification> entry : pending.entrySet()) {
+                ByteBuffer buffer = ByteBuffer.wrap(acceptedRecord(entry.getKey(), entry.getValue()));
+                while (buffer.hasRemaining()) {
+                    out.write(buffer);
+                }
+            }
+            out.force(true);
+        }
+        if (channel != null) {
+            channel.close();
+        }
+        Files.move(compacted, journal.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        channel = FileChannel.open(journal.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND);
+    }
+
+    private void write(byte[] record) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(record);
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    @Nonnull
+    private File getJournal() {
+        if (journal != null) {
+            return journal;
+        }
+        return new File(new File(Jenkins.getActiveInstance().getRootDir(), "github-notify-outbox"), "journal");
+    }
+
+    private static byte[] acceptedRecord(long id, GitHubStatusNotification notification) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(ACCEPTED);
+        out.writeLong(id);
+        writeString(out, notification.getItemFullName());
+        writeString(out, notification.getCredentialsId());
+        writeString(out, notification.getGitApiUrl());
+        writeString(out, notification.getAccount());
+        writeString(out, notification.getRepo());
+        writeString(out, notification.getSha());
+        writeString(out, notification.getStatus() == null ? null : notification.getStatus().name());
+        writeString(out, notification.getDescription());
+        writeString(out, notification.getContext());
+        writeString(out, notification.getTargetUrl());
+        out.writeBoolean(notification.isVerifyCommit());
+        out.writeLong(notification.getCreatedAt());
+        out.writeBoolean(notification.isSkipIfUnchanged());
+        return frame(bytes.toByteArray());
+    }
+
+    private static byte[] completedRecord(long id) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(9);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(COMPLETED);
+        out.writeLong(id);
+        return frame(bytes.toByteArray());
+    }
+
+    private static byte[] frame(byte[] payload) {
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_BYTES + payload.length);
+        buffer.putInt(payload.length);
+        buffer.putInt((int) crc.getValue());
+        buffer.put(payload);
+        return buffer.array();
+    }
+
+    private static GitHubStatusNotification readNotification(DataInputStream in) throws IOException {
+        String itemFullName = readString(in);
+        String credentialsId = readString(in);
+        String gitApiUrl = readString(in);
+        String account = readString(in);
+        String repo = readString(in);
+        String sha = readString(in);
+        String status = readString(in);
+        String description = readString(in);
+        String context = readString(in);
+        String targetUrl = readString(in);
+        boolean verifyCommit = in.readBoolean();
+        long createdAt = in.readLong();
+        boolean skipIfUnchanged = in.readBoolean();
+        return new GitHubStatusNotification(itemFullName, credentialsId, gitApiUrl, account, repo, sha,
+                status == null ? null : GHCommitState.valueOf(status), description, context, targetUrl, verifyCommit,
+                createdAt, skipIfUnchanged);
+    }
+
+    private static void writeString(DataOutputStream out, @CheckForNull String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    @CheckForNull
+    private static String readString(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+}
@@ -0,0 +1,194 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.pipeline.githubstatusnotification;
+
+import hudson.Extension;
+import jenkins.model.Jenkins;
+import org.kohsuke.github.GHRateLimit;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Paces notifications according to the API rate limit left for each token.
+ * <p>
+ * The budget is taken from the {@code X-RateLimit-*} headers of the last response observed for a token and is
+ * decreased locally for every request sent until the next response. While plenty of budget is left notifications are
+ * sent straight away. Once it runs low they are spread evenly until the limit resets, low priority notifications are
+ * shed instead of sent when it is almost exhausted, and when nothing is left the remaining ones wait for the reset.
+ * <p>
+ * No thread is held while a notification waits: the scheduler only tells how long to wait and the caller tries again
+ * later, see {@link RetryPolicy.PacedException}.
+ */
+@Extension
+public class RateLimitScheduler {
+
+    private static final Logger LOGGER = Logger.getLogger(RateLimitScheduler.class.getName());
+
+    /**
+     * Remaining requests under which notifications start being paced
+     */
+    static final int PACING_THRESHOLD = Integer.getInteger(RateLimitScheduler.class.getName() + ".pacingThreshold", 500);
+    /**
+     * Remaining requests under which low priority notifications are not sent at all
+     */
+    static final int SHEDDING_THRESHOLD = Integer.getInteger(RateLimitScheduler.class.getName() + ".sheddingThreshold", 100);
+    /**
+     * Maximum time a notification is delayed, once elapsed it is sent regardless of the budget
+     */
+    static final long MAX_WAIT_SECONDS = Long.getLong(RateLimitScheduler.class.getName() + ".maxWaitSeconds", 60);
+    /**
+     * Returned by {@link #tryAcquire} for a request that should be dropped
+     */
+    public static final long SHED = -1;
+
+    private final Map<String, Budget> budgets = new HashMap<>();
+    /**
+     * The same budgets by credentials id and endpoint, for {@link CredentialsPool} to compare its members
+     */
+    private final Map<String, Budget> byCredentials = new HashMap<>();
+    private final AtomicLong shedCount = new AtomicLong();
+
+    @Nonnull
+    public static RateLimitScheduler get() {
+        return Jenkins.getActiveInstance().getExtensionList(RateLimitScheduler.class).get(0);
+    }
+
+    /**
+     * Tells whether a request can be sent right now with the given token, taking it from the budget if so. The caller
+     * does not wait itself, it asks again once the returned delay has elapsed.
+     *
+     * @param key          the client that will send the request
+     * @param lowPriority  whether the request can be dropped when the budget is almost exhausted
+     * @param waitingSince when the request started waiting, in milliseconds since the epoch, it is let through
+     *                     regardless of the budget once {@link #MAX_WAIT_SECONDS} have elapsed
+     * @return 0 if the request can be sent, {@link #SHED} if it should not be sent at all, otherwise how long to wait
+     * before asking again, in milliseconds
+     */
+    public long tryAcquire(@Nonnull GitHubClientCache.Key key, boolean lowPriority, long waitingSince) {
+        long now = System.currentTimeMillis();
+        synchronized (budgets) {
+            Budget budget = budgets.get(toId(key));
+            if (budget == null || budget.resetAt <= now) {
+                return 0;
+            }
+            if (lowPriority && budget.remaining <= SHEDDING_THRESHOLD) {
+                shedCount.incrementAndGet();
+                return SHED;
+            }
+            long wait;
+            if (budget.remaining <= 0) {
+                wait = budget.resetAt - now;
+            } else if (budget.remaining <= PACING_THRESHOLD) {
+                wait = budget.nextSlot - now;
+            } else {
+                wait = 0;
+            }
+            long deadline = waitingSince + TimeUnit.SECONDS.toMillis(MAX_WAIT_SECONDS);
+            if (wait > 0 && now < deadline) {
+                wait = Math.min(wait, deadline - now);
+                LOGGER.log(Level.FINE, "Delaying request for {0} ms to stay within the rate limit", wait);
+                return wait;
+            }
+            if (budget.remaining > 0 && budget.remaining <= PACING_THRESHOLD) {
+                budget.nextSlot = Math.max(now, budget.nextSlot) + (budget.resetAt - now) / budget.remaining;
+            }
+            budget.remaining--;
+            return 0;
+        }
+    }
+
+    /**
+     * Records the rate limit reported by GitHub in its last response for the given token
+     */
+    public void observe(@CheckForNull GitHubClientCache.Key key, @CheckForNull GHRateLimit rateLimit) {
+        if (key == null || rateLimit == null || rateLimit.reset == null) {
+            return;
+        }
+        synchronized (budgets) {
+            Budget budget = budgets.get(toId(key));
+            if (budget == null) {
+                budget = new Budget();
+                budgets.put(toId(key), budget);
+            }
+            budget.remaining = rateLimit.remaining;
+            budget.resetAt = rateLimit.reset.getTime();
+            byCredentials.put(key.getCredentialsId() + "@" + key.getGitApiUrl(), budget);
+        }
+    }
+
+    /**
+     * @return the requests left for the given credentials before the rate limit resets, {@link Integer#MAX_VALUE} if
+     * no response was observed for them in the current window
+     */
+    public int getRemaining(@Nonnull String credentialsId, @CheckForNull String gitApiUrl) {
+        synchronized (budgets) {
+            Budget budget = byCredentials.get(credentialsId + "@" + gitApiUrl);
+            if (budget == null || budget.resetAt <= System.currentTimeMillis()) {
+                return Integer.MAX_VALUE;
+            }
+            return budget.remaining;
+        }
+    }
+
+    /**
+     * @return when the rate limit of the given credentials resets, in milliseconds since the epoch, 0 if unknown
+     */
+    public long getResetAt(@Nonnull String credentialsId, @CheckForNull String gitApiUrl) {
+        synchronized (budgets) {
+            Budget budget = byCredentials.get(credentialsId + "@" + gitApiUrl);
+            return budget == null ? 0 : budget.resetAt;
+        }
+    }
+
+    /**
+     * @return the number of low priority notifications dropped to save budget
+     */
+    public long getShedCount() {
+        return shedCount.get();
+    }
+
+    private static String toId(GitHubClientCache.Key key) {
+        return key.getFingerprint() + "@" + key.getGitApiUrl();
+    }
+
+    private static final class Budget {
+
+        private int remaining;
+        /**
+         * When the rate limit window resets, in milliseconds since the epoch
+         */
+        private long resetAt;
+        /**
+         * Earliest time the next paced request can be sent
+         */
+        private long nextSlot;
+    }
+}
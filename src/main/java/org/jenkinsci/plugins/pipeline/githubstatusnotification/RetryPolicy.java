@@ -0,0 +1,267 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.pipeline.githubstatusnotification;
+
+import jenkins.util.Timer;
+import org.kohsuke.github.AbuseLimitHandler;
+import org.kohsuke.github.HttpException;
+import org.kohsuke.github.RateLimitHandler;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.HttpURLConnection;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Retries GitHub calls that failed for transient reasons: server errors, timeouts, dropped connections and abuse
+ * detection responses.
+ * <p>
+ * Retries are delayed with an exponential backoff and full jitter, so many builds failing at the same time do not
+ * retry in lockstep, except for abuse detection responses whose {@code Retry-After} delay is honoured. No retry is
+ * attempted once it would finish after the configured deadline. A call waiting for the rate limit, by throwing a
+ * {@link PacedException}, is tried again after the requested delay without counting as an attempt, unless that delay
+ * also ends after the deadline. This includes
+ * calls answered with an exhausted rate limit, which github-api would otherwise wait for by sleeping the calling thread
+ * until the limit resets.
+ */
+public final class RetryPolicy {
+
+    /**
+     * Delay before the first retry, the upper bound of the jitter doubles on every following one
+     */
+    static final long INITIAL_DELAY_MILLIS = Long.getLong(RetryPolicy.class.getName() + ".initialDelayMillis", 1000);
+    /**
+     * Upper bound for the delay between two attempts
+     */
+    static final long MAX_DELAY_MILLIS = Long.getLong(RetryPolicy.class.getName() + ".maxDelayMillis", 30000);
+    /**
+     * Delay used for abuse detection responses without a usable {@code Retry-After} header
+     */
+    static final long DEFAULT_RETRY_AFTER_SECONDS = 60;
+
+    /**
+     * Turns abuse detection responses into a {@link RetryAfterException} instead of blocking the calling thread
+     */
+    public static final AbuseLimitHandler ABUSE_LIMIT_HANDLER = new AbuseLimitHandler() {
+        @Override
+        public void onError(IOException e, HttpURLConnection uc) throws IOException {
+            throw new RetryAfterException(getRetryAfterMillis(uc), e);
+        }
+    };
+
+    /**
+     * Turns exhausted rate limit responses into a {@link PacedException} lasting until the limit resets, instead of
+     * sleeping the calling thread until then
+     */
+    public static final RateLimitHandler RATE_LIMIT_HANDLER = new RateLimitHandler() {
+        @Override
+        public void onError(IOException e, HttpURLConnection uc) throws IOException {
+            throw new PacedException(getResetDelayMillis(uc), e);
+        }
+    };
+
+    private final int maxRetries;
+    private final long deadlineMillis;
+
+    public RetryPolicy(int maxRetries, long deadlineSeconds) {
+        this.maxRetries = maxRetries;
+        this.deadlineMillis = TimeUnit.SECONDS.toMillis(deadlineSeconds);
+    }
+
+    /**
+     * @return a policy using the limits from the system configuration
+     */
+    @Nonnull
+    public static RetryPolicy fromConfiguration() {
+        GitHubNotificationConfiguration configuration = GitHubNotificationConfiguration.get();
+        return new RetryPolicy(configuration.getMaxRetries(), configuration.getRetryDeadlineSeconds());
+    }
+
+    /**
+     * Runs the given call, retrying it while it fails for transient reasons. Every attempt is run by the given runner
+     * and the delays in between are waited for on {@link Timer}, so no thread is held while waiting.
+     * <p>
+     * The first attempt is handed to the runner before returning, so a runner refusing it fails the caller directly.
+     *
+     * @param logger where retries are reported, if any
+     */
+    @Nonnull
+    public <T> CompletableFuture<T> executeAsync(@Nonnull Call<T> call, @CheckForNull PrintStream logger,
+                                                 @Nonnull Runner runner) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        attempt(call, logger, runner, result, 1, System.currentTimeMillis() + deadlineMillis);
+        return result;
+    }
+
+    private <T> void attempt(Call<T> call, PrintStream logger, Runner runner, CompletableFuture<T> result,
+                             int attempt, long deadline) {
+        runner.run(call::call).whenComplete((value, t) -> {
+            if (t == null) {
+                result.complete(value);
+                return;
+            }
+            Throwable cause = t instanceof CompletionException && t.getCause() != null ? t.getCause() : t;
+            long delay;
+            int nextAttempt;
+            if (cause instanceof PacedException) {
+                // waiting for the rate limit is not a failed attempt, but it does not get past the deadline either
+                delay = ((PacedException) cause).getDelayMillis();
+                if (System.currentTimeMillis() + delay > deadline) {
+                    result.completeExceptionally(cause);
+                    return;
+                }
+                nextAttempt = attempt;
+            } else if (cause instanceof IOException && attempt <= maxRetries && isTransient((IOException) cause)) {
+                delay = getDelayMillis(attempt, (IOException) cause);
+                if (System.currentTimeMillis() + delay > deadline) {
+                    result.completeExceptionally(cause);
+                    return;
+                }
+                if (logger != null) {
+                    logger.println("GitHub call failed (" + cause.getMessage() + "), retrying in " + delay + " ms");
+                }
+                nextAttempt = attempt + 1;
+            } else {
+                result.completeExceptionally(cause);
+                return;
+            }
+            Timer.get().schedule(() -> {
+                try {
+                    attempt(call, logger, runner, result, nextAttempt, deadline);
+                } catch (RuntimeException e) {
+                    result.completeExceptionally(e);
+                }
+            }, delay, TimeUnit.MILLISECONDS);
+        });
+    }
+
+    /**
+     * @return whether the failure is likely to go away if the call is tried again
+     */
+    public static boolean isTransient(@Nonnull IOException e) {
+        if (e instanceof RetryAfterException || e instanceof SocketTimeoutException || e instanceof SocketException) {
+            return true;
+        }
+        if (e instanceof HttpException) {
+            return ((HttpException) e).getResponseCode() >= HttpURLConnection.HTTP_INTERNAL_ERROR;
+        }
+        return false;
+    }
+
+    static long getDelayMillis(int attempt, @Nonnull IOException e) {
+        if (e instanceof RetryAfterException) {
+            return ((RetryAfterException) e).getDelayMillis();
+        }
+        long bound = Math.min(MAX_DELAY_MILLIS, INITIAL_DELAY_MILLIS << Math.min(attempt - 1, 30));
+        return ThreadLocalRandom.current().nextLong(bound + 1);
+    }
+
+    private static long getRetryAfterMillis(HttpURLConnection uc) {
+        String retryAfter = uc.getHeaderField("Retry-After");
+        if (retryAfter != null) {
+            try {
+                return TimeUnit.SECONDS.toMillis(Long.parseLong(retryAfter.trim()));
+            } catch (NumberFormatException e) {
+                // only the delay-seconds form is used by GitHub
+            }
+        }
+        return TimeUnit.SECONDS.toMillis(DEFAULT_RETRY_AFTER_SECONDS);
+    }
+
+    private static long getResetDelayMillis(HttpURLConnection uc) {
+        String reset = uc.getHeaderField("X-RateLimit-Reset");
+        if (reset != null) {
+            try {
+                // GitHub sends the epoch second of the reset, the limit may have reset already by clock skew
+                long delay = TimeUnit.SECONDS.toMillis(Long.parseLong(reset.trim())) - System.currentTimeMillis();
+                return Math.max(delay, INITIAL_DELAY_MILLIS);
+            } catch (NumberFormatException e) {
+                // fall back to the default delay
+            }
+        }
+        return TimeUnit.SECONDS.toMillis(DEFAULT_RETRY_AFTER_SECONDS);
+    }
+
+    /**
+     * A GitHub call that may be retried
+     */
+    public interface Call<T> {
+        T call() throws IOException;
+    }
+
+    /**
+     * Runs an attempt of a call, typically on the {@link NotificationExecutor}
+     */
+    public interface Runner {
+        @Nonnull
+        <V> CompletableFuture<V> run(@Nonnull Callable<V> body);
+    }
+
+    /**
+     * Thrown instead of sending a request that has to wait for the rate limit, the call should be made again once
+     * the delay has elapsed
+     */
+    public static class PacedException extends IOException {
+
+        private final long delayMillis;
+
+        public PacedException(long delayMillis) {
+            this(delayMillis, null);
+        }
+
+        public PacedException(long delayMillis, @CheckForNull Throwable cause) {
+            super("Waiting " + delayMillis + " ms for the GitHub rate limit", cause);
+            this.delayMillis = delayMillis;
+        }
+
+        public long getDelayMillis() {
+            return delayMillis;
+        }
+    }
+
+    /**
+     * Thrown when GitHub asks the client to slow down for a given time
+     */
+    public static class RetryAfterException extends IOException {
+
+        private final long delayMillis;
+
+        public RetryAfterException(long delayMillis, Throwable cause) {
+            super("GitHub asked to retry after " + delayMillis + " ms", cause);
+            this.delayMillis = delayMillis;
+        }
+
+        public long getDelayMillis() {
+            return delayMillis;
+        }
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.pipeline.githubstatusnotification;
+
+import hudson.model.ItemGroup;
+import hudson.model.Run;
+import jenkins.plugins.git.AbstractGitSCMSource;
+import jenkins.scm.api.SCMRevision;
+import jenkins.scm.api.SCMRevisionAction;
+import jenkins.scm.api.SCMSource;
+import jenkins.scm.api.SCMSourceOwner;
+import org.jenkinsci.plugins.displayurlapi.DisplayURLProvider;
+import org.jenkinsci.plugins.github_branch_source.GitHubSCMSource;
+import org.jenkinsci.plugins.github_branch_source.PullRequestSCMRevision;
+
+import javax.annotation.Nonnull;
+
+import static org.jenkinsci.plugins.pipeline.githubstatusnotification.GitHubStatusNotificationStep.Execution.UNABLE_TO_INFER_COMMIT;
+import static org.jenkinsci.plugins.pipeline.githubstatusnotification.GitHubStatusNotificationStep.Execution.UNABLE_TO_INFER_CREDENTIALS_ID;
+import static org.jenkinsci.plugins.pipeline.githubstatusnotification.GitHubStatusNotificationStep.Execution.UNABLE_TO_INFER_DATA;
+
+/**
+ * Infers the notification values not given to a step from the run executing it and the GitHub SCM source of its
+ * multibranch project.
+ * <p>
+ * What is read from the project and the run URL are memoized by {@link InferenceCache}.
+ */
+final class RunInference {
+
+    private final Run<?, ?> run;
+
+    RunInference(@Nonnull Run<?, ?> run) {
+        this.run = run;
+    }
+
+    String inferTargetUrl() {
+        return InferenceCache.get().getRunUrl(run.getParent().getFullName() + "#" + run.getNumber(),
+                id -> DisplayURLProvider.get().getRunURL(run));
+    }
+
+    String inferCredentialsId() {
+        String credentialsID = getSource().getCredentialsId();
+        if (credentialsID != null) {
+            return credentialsID;
+        } else {
+            throw new IllegalArgumentException(UNABLE_TO_INFER_CREDENTIALS_ID);
+        }
+    }
+
+    String inferRepo() {
+        return getSource().getRepository();
+    }
+
+    /**
+     * The account is optional, so failing to infer it is not an error, the repository will just be looked up
+     * among every repository visible to the credentials
+     */
+    String inferAccount() {
+        return findSource().getRepoOwner();
+    }
+
+    /**
+     * The API endpoint is optional too, GitHub's own is used when it can not be inferred
+     */
+    String inferGitApiUrl() {
+        return findSource().getApiUri();
+    }
+
+    String inferSha() {
+        SCMRevisionAction action = run.getAction(SCMRevisionAction.class);
+        if (action != null) {
+            SCMRevision revision = action.getRevision();
+            if (revision instanceof AbstractGitSCMSource.SCMRevisionImpl) {
+                return ((AbstractGitSCMSource.SCMRevisionImpl) revision).getHash();
+            } else if (revision instanceof PullRequestSCMRevision) {
+                return ((PullRequestSCMRevision) revision).getPullHash();
+            } else {
+                throw new IllegalArgumentException(UNABLE_TO_INFER_COMMIT);
+            }
+        } else {
+            throw new IllegalArgumentException(UNABLE_TO_INFER_COMMIT);
+        }
+    }
+
+    private InferenceCache.SourceData getSource() {
+        InferenceCache.SourceData source = findSource();
+        if (!source.isFound()) {
+            throw new IllegalArgumentException(UNABLE_TO_INFER_DATA);
+        }
+        return source;
+    }
+
+    private InferenceCache.SourceData findSource() {
+        ItemGroup parent = run.getParent().getParent();
+        if (parent instanceof SCMSourceOwner) {
+            return InferenceCache.get().getSourceData((SCMSourceOwner) parent, RunInference::lookupSource);
+        }
+        return InferenceCache.SourceData.NONE;
+    }
+
+    private static GitHubSCMSource lookupSource(SCMSourceOwner owner) {
+        for (SCMSource source : owner.getSCMSources()) {
+            if (source instanceof GitHubSCMSource) {
+                return ((GitHubSCMSource) source);
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.pipeline.githubstatusnotification;
+
+import hudson.Extension;
+import jenkins.model.Jenkins;
+import org.kohsuke.github.GHCommitState;
+
+import javax.annotation.Nonnull;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Remembers the last status posted for each repository, commit and context, so that posting an identical one again
+ * can be skipped.
+ * <p>
+ * Retried stages and rebuilds often send the very same status, each one being a write against the secondary rate
+ * limit and counting towards the 1000 statuses GitHub keeps per context. The ledger lives in memory and only knows
+ * about statuses posted by this controller, a status changed on GitHub by someone else is not noticed until a
+ * different one is posted from here.
+ */
+@Extension
+public class StatusLedger {
+
+    /**
+     * Maximum number of statuses remembered
+     */
+    static final int MAX_SIZE = Integer.getInteger(StatusLedger.class.getName() + ".maxSize", 10000);
+
+    private final Map<String, Posted> posted = new LinkedHashMap<String, Posted>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Posted> eldest) {
+            return size() > MAX_SIZE;
+        }
+    };
+    private final AtomicLong skippedCount = new AtomicLong();
+
+    @Nonnull
+    public static StatusLedger get() {
+        return Jenkins.getActiveInstance().getExtensionList(StatusLedger.class).get(0);
+    }
+
+    @Nonnull
+    static String keyOf(String gitApiUrl, String repository, String sha, String context) {
+        return gitApiUrl + "|" + repository + "|" + sha + "|" + context;
+    }
+
+    /**
+     * @return true if the very same status was the last one posted for the key, which is then counted as skipped
+     */
+    public synchronized boolean isUnchanged(@Nonnull String key, @Nonnull GitHubStatusNotification notification) {
+        if (new Posted(notification).equals(posted.get(key))) {
+            skippedCount.incrementAndGet();
+            return true;
+        }
+        return false;
+    }
+
+    public synchronized void record(@Nonnull String key, @Nonnull GitHubStatusNotification notification) {
+        posted.put(key, new Posted(notification));
+    }
+
+    public synchronized void forget(@Nonnull String key) {
+        posted.remove(key);
+    }
+
+    public long getSkippedCount() {
+        return skippedCount.get();
+    }
+
+    private static final class Posted {
+        private final GHCommitState status;
+        private final String description;
+        private final String targetUrl;
+
+        private Posted(GitHubStatusNotification notification) {
+            this.status = notification.getStatus();
+            this.description = notification.getDescription();
+            this.targetUrl = notification.getTargetUrl();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            Posted other = (Posted) o;
+            return status == other.status && Objects.equals(description, other.description)
+                    && Objects.equals(targetUrl, other.targetUrl);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(status, description, targetUrl);
+        }
+    }
+}
@@ -0,0 +1,250 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.pipeline.githubstatusnotification;
+
+import hudson.Extension;
+import jenkins.model.Jenkins;
+
+import javax.annotation.Nonnull;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Paces the requests creating content, commit statuses, to stay under the GitHub secondary rate limits.
+ * <p>
+ * Statuses are not paced until GitHub answers with a secondary rate limit, unless a rate is set in the
+ * {@link GitHubNotificationConfiguration}. A paced token has a token bucket per endpoint, refilled at that rate and
+ * holding up to the configured burst, so bursts of notifications from parallel branches are spread into a steady flow
+ * instead of being locked out. When GitHub answers with a secondary rate limit the bucket is paused for the
+ * {@code Retry-After} delay and its rate halved, then raised back step by step on every successful request. Without a
+ * configured rate the token is no longer paced once it is back to {@link #LIMITED_RATE_PER_MINUTE}. Reads are not
+ * paced, they are only subject to {@link RateLimitScheduler}.
+ * <p>
+ * Like {@link RateLimitScheduler}, the limiter only tells how long a status has to wait, no thread is held meanwhile.
+ */
+@Extension
+public class WriteRateLimiter {
+
+    private static final Logger LOGGER = Logger.getLogger(WriteRateLimiter.class.getName());
+
+    /**
+     * Rate a token is slowed down from after a secondary rate limit, when no rate is configured
+     */
+    static final double LIMITED_RATE_PER_MINUTE = 60;
+    /**
+     * Maximum time a request is delayed, once elapsed it is sent regardless of the pacing
+     */
+    static final long MAX_WAIT_SECONDS = Long.getLong(WriteRateLimiter.class.getName() + ".maxWaitSeconds", 120);
+    /**
+     * Lowest fraction of the rate the rate is lowered to after secondary rate limits
+     */
+    private static final double MIN_RATE_FACTOR = 0.1;
+    /**
+     * Fraction of the rate the rate is raised by on every successful request
+     */
+    private static final double RECOVERY_FACTOR = 0.05;
+
+    private final Map<String, Bucket> buckets = new HashMap<>();
+    private final AtomicLong delayedCount = new AtomicLong();
+    private final AtomicLong limitedCount = new AtomicLong();
+    /**
+     * Whether the rate and burst are read from the global configuration rather than the fields below
+     */
+    private final boolean fromConfiguration;
+    private final int ratePerMinute;
+    private final int burst;
+
+    public WriteRateLimiter() {
+        this.fromConfiguration = true;
+        this.ratePerMinute = 0;
+        this.burst = 0;
+    }
+
+    WriteRateLimiter(int ratePerMinute, int burst) {
+        this.fromConfiguration = false;
+        this.ratePerMinute = ratePerMinute;
+        this.burst = burst;
+    }
+
+    @Nonnull
+    public static WriteRateLimiter get() {
+        return Jenkins.getActiveInstance().getExtensionList(WriteRateLimiter.class).get(0);
+    }
+
+    /**
+     * Tells whether a content creating request can be sent right now with the given token, taking a token from its
+     * bucket if so. The caller does not wait itself, it asks again once the returned delay has elapsed.
+     *
+     * @param key          the client that will send the request
+     * @param waitingSince when the request started waiting, in milliseconds since the epoch, it is let through
+     *                     regardless of the pacing once {@link #MAX_WAIT_SECONDS} have elapsed
+     * @return 0 if the request can be sent, otherwise how long to wait before asking again, in milliseconds
+     */
+    public long tryAcquire(@Nonnull GitHubClientCache.Key key, long waitingSince) {
+        long now = System.currentTimeMillis();
+        boolean force = now - waitingSince >= TimeUnit.SECONDS.toMillis(MAX_WAIT_SECONDS);
+        long wait;
+        synchronized (buckets) {
+            Bucket bucket = getRatePerMinute() > 0 ? bucketOf(key) : buckets.get(toId(key));
+            if (bucket == null) {
+                return 0;
+            }
+            wait = bucket.tryTake(now, Math.max(getBurst(), 1), force);
+        }
+        if (wait > 0) {
+            delayedCount.incrementAndGet();
+            LOGGER.log(Level.FINE, "Delaying status for {0} ms to stay within the secondary rate limit", wait);
+        }
+        return wait;
+    }
+
+    /**
+     * Raises the rate of the given token back towards the configured rate after a successful request
+     */
+    public void onSuccess(@Nonnull GitHubClientCache.Key key) {
+        synchronized (buckets) {
+            Bucket bucket = buckets.get(toId(key));
+            if (bucket == null) {
+                return;
+            }
+            bucket.rate = Math.min(maxRate(), bucket.rate + maxRate() * RECOVERY_FACTOR);
+            if (getRatePerMinute() <= 0 && bucket.rate >= maxRate() && bucket.pausedUntil <= System.currentTimeMillis()) {
+                // recovered, back to not pacing at all
+                buckets.remove(toId(key));
+            }
+        }
+    }
+
+    /**
+     * Pauses the given token and halves its rate after GitHub answered with a secondary rate limit
+     *
+     * @param retryAfterMillis the delay GitHub asked for
+     */
+    public void onLimited(@Nonnull GitHubClientCache.Key key, long retryAfterMillis) {
+        limitedCount.incrementAndGet();
+        synchronized (buckets) {
+            Bucket bucket = bucketOf(key);
+            bucket.rate = Math.max(maxRate() * MIN_RATE_FACTOR, bucket.rate / 2);
+            // the first request after the pause goes straight, the following ones at the lowered rate
+            bucket.tokens = Math.min(bucket.tokens, 1);
+            bucket.pausedUntil = Math.max(bucket.pausedUntil, System.currentTimeMillis() + retryAfterMillis);
+            bucket.refilledAt = Math.max(bucket.refilledAt, bucket.pausedUntil);
+        }
+        LOGGER.log(Level.INFO, "GitHub secondary rate limit reached, pausing statuses for {0} ms", retryAfterMillis);
+    }
+
+    /**
+     * @return the number of times a status was delayed to stay within the secondary rate limits
+     */
+    public long getDelayedCount() {
+        return delayedCount.get();
+    }
+
+    /**
+     * @return the number of secondary rate limit responses received anyway
+     */
+    public long getLimitedCount() {
+        return limitedCount.get();
+    }
+
+    private int getRatePerMinute() {
+        return fromConfiguration ? GitHubNotificationConfiguration.get().getStatusRatePerMinute() : ratePerMinute;
+    }
+
+    private int getBurst() {
+        return fromConfiguration ? GitHubNotificationConfiguration.get().getStatusBurst() : burst;
+    }
+
+    private Bucket bucketOf(GitHubClientCache.Key key) {
+        String id = toId(key);
+        Bucket bucket = buckets.get(id);
+        if (bucket == null) {
+            bucket = new Bucket(maxRate(), Math.max(getBurst(), 1), System.currentTimeMillis());
+            buckets.put(id, bucket);
+        }
+        return bucket;
+    }
+
+    private static String toId(GitHubClientCache.Key key) {
+        return key.getFingerprint() + "@" + key.getGitApiUrl();
+    }
+
+    /**
+     * @return the configured rate, or the one slowed down from if there is none, in requests per millisecond
+     */
+    private double maxRate() {
+        int configured = getRatePerMinute();
+        return (configured > 0 ? configured : LIMITED_RATE_PER_MINUTE) / TimeUnit.MINUTES.toMillis(1);
+    }
+
+    private static final class Bucket {
+
+        /**
+         * Requests that can be sent right away, negative when requests waiting for too long were let through
+         */
+        private double tokens;
+        /**
+         * Current refill rate in requests per millisecond
+         */
+        private double rate;
+        private long refilledAt;
+        /**
+         * No request is sent before this time, in milliseconds since the epoch
+         */
+        private long pausedUntil;
+
+        private Bucket(double rate, int burst, long now) {
+            this.tokens = burst;
+            this.rate = rate;
+            this.refilledAt = now;
+        }
+
+        /**
+         * Takes a token if one is available, or regardless when forced
+         *
+         * @return 0 if a token was taken, otherwise how long until one is available, in milliseconds
+         */
+        private long tryTake(long now, int burst, boolean force) {
+            if (now > refilledAt) {
+                tokens = Math.min(burst, tokens + (now - refilledAt) * rate);
+                refilledAt = now;
+            }
+            long wait = 0;
+            if (pausedUntil > now) {
+                wait = pausedUntil - now;
+            } else if (tokens < 1) {
+                wait = (long) Math.ceil((1 - tokens) / rate);
+            }
+            if (wait > 0 && !force) {
+                return wait;
+            }
+            tokens--;
+            return 0;
+        }
+    }
+}
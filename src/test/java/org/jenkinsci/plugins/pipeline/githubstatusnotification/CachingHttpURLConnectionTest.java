@@ -0,0 +1,163 @@
+package org.jenkinsci.plugins.pipeline.githubstatusnotification;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.kohsuke.github.GHRepository;
+import org.kohsuke.github.GitHub;
+import org.kohsuke.github.GitHubBuilder;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the requests and responses going through a {@link CachingHttpURLConnection}
+ */
+public class CachingHttpURLConnectionTest {
+
+    private static final String REPOSITORY = "{\"name\":\"acceptance-test-harness\",\"full_name\":\"jenkinsci/acceptance-test-harness\","
+            + "\"owner\":{\"login\":\"jenkinsci\"}}";
+
+    private HttpServer server;
+    private String endpoint;
+    private ConditionalResponseCache cache;
+    /**
+     * The method, path, If-None-Match header and body of every request received
+     */
+    private final List<String> requests = new CopyOnWriteArrayList<>();
+
+    @Before
+    public void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", this::handle);
+        server.start();
+        endpoint = "http://127.0.0.1:" + server.getAddress().getPort();
+        cache = new ConditionalResponseCache();
+    }
+
+    @After
+    public void stopServer() {
+        server.stop(0);
+    }
+
+    @Test
+    public void unchangedResponseIsReplayedFromTheCache() throws Exception {
+        HttpURLConnection first = connect("/repos/jenkinsci/acceptance-test-harness");
+        assertEquals(200, first.getResponseCode());
+        assertEquals(REPOSITORY, read(first.getInputStream()));
+
+        HttpURLConnection second = connect("/repos/jenkinsci/acceptance-test-harness");
+        assertEquals(200, second.getResponseCode());
+        assertEquals(REPOSITORY, read(second.getInputStream()));
+        // the headers of the 304 replace the cached ones
+        assertEquals("4999", second.getHeaderField("X-RateLimit-Remaining"));
+        assertEquals("\"v1\"", second.getHeaderField("ETag"));
+
+        assertEquals("GET /repos/jenkinsci/acceptance-test-harness \"v1\" ", requests.get(1));
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+    }
+
+    @Test
+    public void otherMethodsGoThroughUntouched() throws Exception {
+        for (int i = 0; i < 2; i++) {
+            HttpURLConnection connection = connect("/repos/jenkinsci/acceptance-test-harness/statuses/0b5936eb");
+            connection.setRequestMethod("POST");
+            connection.setDoOutput(true);
+            try (OutputStream out = connection.getOutputStream()) {
+                out.write("{}".getBytes(StandardCharsets.UTF_8));
+            }
+            assertEquals(201, connection.getResponseCode());
+            assertEquals("{}", read(connection.getInputStream()));
+        }
+        assertEquals("POST /repos/jenkinsci/acceptance-test-harness/statuses/0b5936eb null {}", requests.get(1));
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.getHitCount() + cache.getMissCount());
+    }
+
+    @Test
+    public void patchIsSentThroughTheWrappedConnection() throws Exception {
+        GitHub gitHub = new GitHubBuilder().withEndpoint(endpoint)
+                .withConnector(url -> new CachingHttpURLConnection((HttpURLConnection) url.openConnection(), cache))
+                .build();
+        GHRepository repository = gitHub.getRepository("jenkinsci/acceptance-test-harness");
+        repository.setDescription("Acceptance tests");
+        assertTrue(requests.get(1), requests.get(1).startsWith("PATCH /repos/jenkinsci/acceptance-test-harness null {"));
+    }
+
+    @Test
+    public void errorResponseIsNotCached() throws Exception {
+        for (int i = 0; i < 2; i++) {
+            HttpURLConnection connection = connect("/repos/jenkinsci/missing");
+            assertEquals(404, connection.getResponseCode());
+            assertEquals("{\"message\":\"Not Found\"}", read(connection.getErrorStream()));
+        }
+        assertEquals("GET /repos/jenkinsci/missing null ", requests.get(1));
+        assertEquals(0, cache.size());
+        assertEquals(2, cache.getMissCount());
+    }
+
+    @Test
+    public void errorStreamIsAbsentWhenServedFromTheCache() throws Exception {
+        read(connect("/repos/jenkinsci/acceptance-test-harness").getInputStream());
+        HttpURLConnection connection = connect("/repos/jenkinsci/acceptance-test-harness");
+        assertEquals(200, connection.getResponseCode());
+        assertNull(connection.getErrorStream());
+    }
+
+    private HttpURLConnection connect(String path) throws IOException {
+        return new CachingHttpURLConnection((HttpURLConnection) new URL(endpoint + path).openConnection(), cache);
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        String method = exchange.getRequestMethod();
+        String path = exchange.getRequestURI().getPath();
+        String etag = exchange.getRequestHeaders().getFirst("If-None-Match");
+        String body = read(exchange.getRequestBody());
+        requests.add(method + " " + path + " " + etag + " " + body);
+        if (path.equals("/repos/jenkinsci/missing")) {
+            respond(exchange, 404, "{\"message\":\"Not Found\"}");
+        } else if (!method.equals("GET")) {
+            exchange.getResponseHeaders().add("ETag", "\"v1\"");
+            respond(exchange, method.equals("POST") ? 201 : 200, method.equals("POST") ? "{}" : REPOSITORY);
+        } else if ("\"v1\"".equals(etag)) {
+            exchange.getResponseHeaders().add("ETag", "\"v1\"");
+            exchange.getResponseHeaders().add("X-RateLimit-Remaining", "4999");
+            exchange.sendResponseHeaders(304, -1);
+            exchange.close();
+        } else {
+            exchange.getResponseHeaders().add("ETag", "\"v1\"");
+            exchange.getResponseHeaders().add("X-RateLimit-Remaining", "5000");
+            respond(exchange, 200, REPOSITORY);
+        }
+    }
+
+    private static void respond(HttpExchange exchange, int code, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().add("Content-Type", "application/json");
+        exchange.sendResponseHeaders(code, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    private static String read(InputStream in) throws IOException {
+        try (InputStream stream = in) {
+            return IOUtils.toString(stream, StandardCharsets.UTF_8.name());
+        }
+    }
+}
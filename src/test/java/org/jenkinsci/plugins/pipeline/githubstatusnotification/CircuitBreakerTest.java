@@ -0,0 +1,137 @@
+package org.jenkinsci.plugins.pipeline.githubstatusnotification;
+
+import org.junit.Test;
+import org.kohsuke.github.HttpException;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks the transitions of a {@link CircuitBreaker}
+ */
+public class CircuitBreakerTest {
+
+    private static final long OPEN_MILLIS = 200;
+
+    @Test
+    public void consecutiveTransientFailuresOpenTheBreaker() throws Exception {
+        CircuitBreaker breaker = new CircuitBreaker("https://api.github.com", 3, OPEN_MILLIS);
+        for (int i = 0; i < 2; i++) {
+            failWith(breaker, serverError());
+        }
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        failWith(breaker, serverError());
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+
+        try {
+            breaker.call(() -> "ok");
+            fail("the breaker should be open");
+        } catch (CircuitBreaker.CircuitOpenException e) {
+            assertEquals(1, breaker.getRejectedCount());
+        }
+    }
+
+    @Test
+    public void successResetsTheFailureCount() throws Exception {
+        CircuitBreaker breaker = new CircuitBreaker("https://api.github.com", 2, OPEN_MILLIS);
+        failWith(breaker, serverError());
+        breaker.call(() -> "ok");
+        failWith(breaker, serverError());
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        assertEquals(1, breaker.getConsecutiveFailures());
+    }
+
+    @Test
+    public void successfulTrialClosesTheBreaker() throws Exception {
+        CircuitBreaker breaker = open();
+        Thread.sleep(OPEN_MILLIS + 50);
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+        assertEquals("ok", breaker.call(() -> "ok"));
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        assertEquals(0, breaker.getConsecutiveFailures());
+    }
+
+    @Test
+    public void failedTrialOpensTheBreakerAgain() throws Exception {
+        CircuitBreaker breaker = open();
+        Thread.sleep(OPEN_MILLIS + 50);
+        failWith(breaker, serverError());
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+    }
+
+    @Test
+    public void onlyOneTrialIsLetThrough() throws Exception {
+        CircuitBreaker breaker = open();
+        Thread.sleep(OPEN_MILLIS + 50);
+        breaker.call(() -> {
+            try {
+                breaker.call(() -> "concurrent");
+                fail("a single trial call should be let through");
+            } catch (CircuitBreaker.CircuitOpenException e) {
+                // expected
+            }
+            return "trial";
+        });
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+    }
+
+    @Test
+    public void answersFromGitHubAreNotFailures() throws Exception {
+        CircuitBreaker breaker = new CircuitBreaker("https://api.github.com", 1, OPEN_MILLIS);
+        failWith(breaker, new FileNotFoundException());
+        failWith(breaker, new HttpException("Unprocessable Entity", 422, "Unprocessable Entity", "https://api.github.com"));
+        failWith(breaker, new RetryPolicy.RetryAfterException(60000, null));
+        try {
+            breaker.call(() -> {
+                throw new IllegalArgumentException(GitHubStatusNotificationStep.INVALID_REPO);
+            });
+            fail("the call should have failed");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+    }
+
+    @Test
+    public void unexpectedErrorOnlyReleasesTheTrial() throws Exception {
+        CircuitBreaker breaker = open();
+        Thread.sleep(OPEN_MILLIS + 50);
+        try {
+            breaker.call(() -> {
+                throw new IllegalStateException("bug");
+            });
+            fail("the call should have failed");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+        assertEquals(1, breaker.getConsecutiveFailures());
+        assertEquals("ok", breaker.call(() -> "ok"));
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+    }
+
+    private static CircuitBreaker open() {
+        CircuitBreaker breaker = new CircuitBreaker("https://api.github.com", 1, OPEN_MILLIS);
+        failWith(breaker, serverError());
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        return breaker;
+    }
+
+    private static void failWith(CircuitBreaker breaker, IOException failure) {
+        try {
+            breaker.call(() -> {
+                throw failure;
+            });
+            fail("the call should have failed");
+        } catch (IOException e) {
+            assertEquals(failure, e);
+        }
+    }
+
+    private static HttpException serverError() {
+        return new HttpException("Bad Gateway", 502, "Bad Gateway", "https://api.github.com");
+    }
+}
@@ -0,0 +1,67 @@
+package org.jenkinsci.plugins.pipeline.githubstatusnotification;
+
+import org.junit.Test;
+import org.kohsuke.github.GHRateLimit;
+
+import java.net.Proxy;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks how {@link CredentialsPool} picks the credentials of a pool
+ */
+public class CredentialsPoolTest {
+
+    private static final String API = "https://api.github.com";
+
+    @Test
+    public void poolIsFoundByAnyMember() {
+        String pools = "bot-1, bot-2 bot-3\nother-1,other-2";
+        assertEquals(Arrays.asList("bot-1", "bot-2", "bot-3"), CredentialsPool.poolOf("bot-2", pools));
+        assertEquals(Arrays.asList("other-1", "other-2"), CredentialsPool.poolOf("other-1", pools));
+        assertEquals(Collections.emptyList(), CredentialsPool.poolOf("unknown", pools));
+        assertEquals(Collections.emptyList(), CredentialsPool.poolOf("bot-1", null));
+    }
+
+    @Test
+    public void memberWithMostBudgetIsSelected() {
+        RateLimitScheduler scheduler = new RateLimitScheduler();
+        observe(scheduler, "bot-1", 100, 30);
+        observe(scheduler, "bot-2", 4000, 30);
+        observe(scheduler, "bot-3", 0, 10);
+        List<String> members = Arrays.asList("bot-1", "bot-2", "bot-3");
+        for (int rotation = 0; rotation < 3; rotation++) {
+            assertEquals("bot-2", CredentialsPool.leastLoaded(members, API, scheduler, rotation));
+        }
+    }
+
+    @Test
+    public void unobservedMembersAreUsedInTurn() {
+        RateLimitScheduler scheduler = new RateLimitScheduler();
+        observe(scheduler, "bot-1", 100, 30);
+        List<String> members = Arrays.asList("bot-1", "bot-2", "bot-3");
+        assertEquals("bot-2", CredentialsPool.leastLoaded(members, API, scheduler, 0));
+        assertEquals("bot-2", CredentialsPool.leastLoaded(members, API, scheduler, 1));
+        assertEquals("bot-3", CredentialsPool.leastLoaded(members, API, scheduler, 2));
+    }
+
+    @Test
+    public void exhaustedPoolUsesTheFirstMemberToReset() {
+        RateLimitScheduler scheduler = new RateLimitScheduler();
+        observe(scheduler, "bot-1", 0, 30);
+        observe(scheduler, "bot-2", 0, 5);
+        assertEquals("bot-2", CredentialsPool.leastLoaded(Arrays.asList("bot-1", "bot-2"), API, scheduler, 0));
+    }
+
+    private static void observe(RateLimitScheduler scheduler, String credentialsId, int remaining, int resetMinutes) {
+        GHRateLimit rateLimit = new GHRateLimit();
+        rateLimit.remaining = remaining;
+        rateLimit.reset = new Date(System.currentTimeMillis() + TimeUnit.MINUTES.toMillis(resetMinutes));
+        scheduler.observe(new GitHubClientCache.Key(credentialsId, credentialsId, API, Proxy.NO_PROXY), rateLimit);
+    }
+}
@@ -0,0 +1,115 @@
+package org.jenkinsci.plugins.pipeline.githubstatusnotification;
+
+import com.sun.net.httpserver.HttpServer;
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.kohsuke.github.HttpConnector;
+import org.kohsuke.github.HttpException;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Runs {@link GitHubGraphQL} against a local stand-in for the GraphQL endpoint
+ */
+public class GitHubGraphQLTest {
+
+    private static final String SHA = "0b5936eb903d439ac0c0bf84940d73128d5e9487";
+
+    private HttpServer server;
+    private volatile String lastRequest;
+    private volatile String lastAuthorization;
+
+    @Before
+    public void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/graphql", exchange -> {
+            lastRequest = IOUtils.toString(exchange.getRequestBody(), StandardCharsets.UTF_8.name());
+            lastAuthorization = exchange.getRequestHeaders().getFirst("Authorization");
+            int code;
+            String body;
+            if (!"token secret".equals(lastAuthorization)) {
+                code = 401;
+                body = "{\"message\":\"Bad credentials\"}";
+            } else if (!lastRequest.contains("\"owner\":\"raul-arabaolaza\"") || !lastRequest.contains("\"name\":\"acceptance-test-harness\"")) {
+                code = 200;
+                body = "{\"data\":{\"repository\":null},\"errors\":[{\"type\":\"NOT_FOUND\",\"message\":\"Could not resolve to a Repository\"}]}";
+            } else if (lastRequest.contains("\"expression\":\"0b5936e\"")) {
+                code = 200;
+                body = "{\"data\":{\"repository\":{\"viewerPermission\":\"WRITE\",\"object\":{\"oid\":\"" + SHA + "\"}}}}";
+            } else {
+                code = 200;
+                body = "{\"data\":{\"repository\":{\"viewerPermission\":\"READ\",\"object\":null}}}";
+            }
+            byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().add("Content-Type", "application/json");
+            exchange.sendResponseHeaders(code, bytes.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(bytes);
+            }
+        });
+        server.start();
+    }
+
+    @After
+    public void stopServer() {
+        server.stop(0);
+    }
+
+    private GitHubGraphQL client(String token) throws IOException {
+        return new GitHubGraphQL(new URL("http://127.0.0.1:" + server.getAddress().getPort() + "/graphql"),
+                "token " + token, HttpConnector.DEFAULT);
+    }
+
+    @Test
+    public void repositoryAndCommitAreValidatedInOneRequest() throws Exception {
+        GitHubGraphQL.Validation validation = client("secret").validate("raul-arabaolaza", "acceptance-test-harness", "0b5936e");
+        assertTrue(validation.isRepositoryFound());
+        assertEquals("WRITE", validation.getViewerPermission());
+        assertEquals(SHA, validation.getCommitSha());
+        assertTrue(lastRequest.contains("viewerPermission"));
+        assertEquals("token secret", lastAuthorization);
+    }
+
+    @Test
+    public void missingCommitIsReported() throws Exception {
+        GitHubGraphQL.Validation validation = client("secret").validate("raul-arabaolaza", "acceptance-test-harness", "ffffff");
+        assertTrue(validation.isRepositoryFound());
+        assertEquals("READ", validation.getViewerPermission());
+        assertNull(validation.getCommitSha());
+    }
+
+    @Test
+    public void missingRepositoryIsReported() throws Exception {
+        GitHubGraphQL.Validation validation = client("secret").validate("raul-arabaolaza", "missing", "0b5936e");
+        assertFalse(validation.isRepositoryFound());
+        assertNull(validation.getCommitSha());
+    }
+
+    @Test
+    public void rejectedCredentialsFailWithUnauthorized() throws Exception {
+        try {
+            client("wrong").validate("raul-arabaolaza", "acceptance-test-harness", "0b5936e");
+            fail("Expected the credentials to be rejected");
+        } catch (HttpException e) {
+            assertEquals(401, e.getResponseCode());
+        }
+    }
+
+    @Test
+    public void endpointIsDerivedFromTheRestApi() throws Exception {
+        assertEquals("https://api.github.com/graphql", GitHubGraphQL.endpointFor(null).toString());
+        assertEquals("https://ghe.example.com/api/graphql", GitHubGraphQL.endpointFor("https://ghe.example.com/api/v3/").toString());
+    }
+}
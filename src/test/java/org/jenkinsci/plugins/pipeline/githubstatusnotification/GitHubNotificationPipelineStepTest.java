@@ -8,27 +8,31 @@ import hudson.model.Result;
 import org.jenkinsci.plugins.workflow.cps.CpsFlowDefinition;
 import org.jenkinsci.plugins.workflow.job.WorkflowJob;
 import org.jenkinsci.plugins.workflow.job.WorkflowRun;
+import org.junit.Assert;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.jvnet.hudson.test.JenkinsRule;
 import org.kohsuke.github.*;
 import org.mockito.Matchers;
+import org.mockito.Mockito;
 import org.powermock.api.mockito.PowerMockito;
 import org.powermock.core.classloader.annotations.PowerMockIgnore;
 import org.powermock.core.classloader.annotations.PrepareForTest;
 import org.powermock.modules.junit4.PowerMockRunner;
 
-import java.io.IOException;
+import java.io.FileNotFoundException;
 import java.net.Proxy;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 import static org.mockito.Matchers.anyString;
 
 @RunWith(PowerMockRunner.class)
-@PrepareForTest({GitHubStatusNotificationStep.class})
+@PrepareForTest({GitHubStatusNotificationStep.class, RunInference.class})
 @PowerMockIgnore({"javax.crypto.*"})
 public class GitHubNotificationPipelineStepTest {
 
@@ -67,6 +71,16 @@ public class GitHubNotificationPipelineStepTest {
     @Test
     public void buildWithWrongCredentialsMustFail() throws Exception {
 
+        GitHubBuilder ghb = PowerMockito.mock(GitHubBuilder.class);
+        PowerMockito.when(ghb.withProxy(Matchers.<Proxy>anyObject())).thenReturn(ghb);
+        PowerMockito.when(ghb.withOAuthToken(anyString(), anyString())).thenReturn(ghb);
+        PowerMockito.when(ghb.withEndpoint(anyString())).thenReturn(ghb);
+        PowerMockito.whenNew(GitHubBuilder.class).withNoArguments().thenReturn(ghb);
+        GitHub gh = PowerMockito.mock(GitHub.class);
+        PowerMockito.when(ghb.build()).thenReturn(gh);
+        PowerMockito.when(gh.getRateLimit())
+                .thenThrow(new HttpException("Bad credentials", 401, "Unauthorized", "https://api.github.com/rate_limit"));
+
         Credentials dummy = new DummyCredentials(CredentialsScope.GLOBAL, "user", "password");
         SystemCredentialsProvider.getInstance().getCredentials().add(dummy);
 
@@ -85,6 +99,16 @@ public class GitHubNotificationPipelineStepTest {
     @Test
     public void buildWithWrongCredentialsMustFailEnterprise() throws Exception {
 
+        GitHubBuilder ghb = PowerMockito.mock(GitHubBuilder.class);
+        PowerMockito.when(ghb.withProxy(Matchers.<Proxy>anyObject())).thenReturn(ghb);
+        PowerMockito.when(ghb.withOAuthToken(anyString(), anyString())).thenReturn(ghb);
+        PowerMockito.when(ghb.withEndpoint(anyString())).thenReturn(ghb);
+        PowerMockito.whenNew(GitHubBuilder.class).withNoArguments().thenReturn(ghb);
+        GitHub gh = PowerMockito.mock(GitHub.class);
+        PowerMockito.when(ghb.build()).thenReturn(gh);
+        PowerMockito.when(gh.getRateLimit())
+                .thenThrow(new HttpException("Bad credentials", 401, "Unauthorized", "https://api.github.com/rate_limit"));
+
         Credentials dummy = new DummyCredentials(CredentialsScope.GLOBAL, "user", "password");
         SystemCredentialsProvider.getInstance().getCredentials().add(dummy);
 
@@ -109,7 +133,6 @@ public class GitHubNotificationPipelineStepTest {
         PowerMockito.whenNew(GitHubBuilder.class).withNoArguments().thenReturn(ghb);
         GitHub gh = PowerMockito.mock(GitHub.class);
         PowerMockito.when(ghb.build()).thenReturn(gh);
-        PowerMockito.when(gh.isCredentialValid()).thenReturn(true);
         GHMyself myself = PowerMockito.mock(GHMyself.class);
         PowerMockito.when(gh.getMyself()).thenReturn(myself);
         PowerMockito.when(myself.getAllRepositories()).thenReturn(Collections.emptyMap());
@@ -138,7 +161,6 @@ public class GitHubNotificationPipelineStepTest {
         PowerMockito.whenNew(GitHubBuilder.class).withNoArguments().thenReturn(ghb);
         GitHub gh = PowerMockito.mock(GitHub.class);
         PowerMockito.when(ghb.build()).thenReturn(gh);
-        PowerMockito.when(gh.isCredentialValid()).thenReturn(true);
 
         GHMyself myself = PowerMockito.mock(GHMyself.class);
 
@@ -147,7 +169,7 @@ public class GitHubNotificationPipelineStepTest {
 
         GHRepository repo = myself.getAllRepositories().get("acceptance-test-harness");
 
-        PowerMockito.when((repo.getCommit(anyString()))).thenThrow(IOException.class);
+        PowerMockito.when((repo.getCommit(anyString()))).thenThrow(FileNotFoundException.class);
 
         Credentials dummy = new DummyCredentials(CredentialsScope.GLOBAL, "user", "password");
         SystemCredentialsProvider.getInstance().getCredentials().add(dummy);
@@ -164,6 +186,39 @@ public class GitHubNotificationPipelineStepTest {
         jenkins.assertLogContains(GitHubStatusNotificationStep.INVALID_COMMIT, b1);
     }
 
+    @Test
+    public void buildWithoutCommitVerificationWithWrongCommitMustFail() throws Exception {
+
+        GitHubBuilder ghb = PowerMockito.mock(GitHubBuilder.class);
+        PowerMockito.when(ghb.withProxy(Matchers.<Proxy>anyObject())).thenReturn(ghb);
+        PowerMockito.when(ghb.withOAuthToken(anyString(), anyString())).thenReturn(ghb);
+        PowerMockito.whenNew(GitHubBuilder.class).withNoArguments().thenReturn(ghb);
+        GitHub gh = PowerMockito.mock(GitHub.class);
+        PowerMockito.when(ghb.build()).thenReturn(gh);
+
+        GHMyself myself = PowerMockito.mock(GHMyself.class);
+        PowerMockito.when(myself.getAllRepositories()).thenReturn(getRepoMap());
+        PowerMockito.when(gh.getMyself()).thenReturn(myself);
+        GHRepository repo = myself.getAllRepositories().get("acceptance-test-harness");
+        PowerMockito.when(repo.createCommitStatus(anyString(), Matchers.<GHCommitState>anyObject(), anyString(), anyString(), anyString()))
+                .thenThrow(new HttpException("No commit found for SHA", 422, "Unprocessable Entity", "https://api.github.com"));
+
+        Credentials dummy = new DummyCredentials(CredentialsScope.GLOBAL, "user", "password");
+        SystemCredentialsProvider.getInstance().getCredentials().add(dummy);
+
+        WorkflowJob p = jenkins.createProject(WorkflowJob.class, "p");
+        p.setDefinition(new CpsFlowDefinition(
+                "githubNotify context: 'ATH Results', " +
+                        "credentialsId: 'dummy', description: 'All tests are OK', " +
+                        "repo: 'acceptance-test-harness', sha: '0b5936eb903d439ac0c0bf84940d73128d5e9487', " +
+                        "status: 'SUCCESS', targetUrl: 'http://www.cloudbees.com', verifyCommit: false"
+        ));
+        WorkflowRun b1 = p.scheduleBuild2(0).waitForStart();
+        jenkins.assertBuildStatus(Result.FAILURE, jenkins.waitForCompletion(b1));
+        jenkins.assertLogContains(GitHubStatusNotificationStep.INVALID_COMMIT, b1);
+        Mockito.verify(repo, Mockito.never()).getCommit(anyString());
+    }
+
     @Test
     public void buildWithInferWithoutCommitMustFail() throws Exception {
 
@@ -173,7 +228,6 @@ public class GitHubNotificationPipelineStepTest {
         PowerMockito.whenNew(GitHubBuilder.class).withNoArguments().thenReturn(ghb);
         GitHub gh = PowerMockito.mock(GitHub.class);
         PowerMockito.when(ghb.build()).thenReturn(gh);
-        PowerMockito.when(gh.isCredentialValid()).thenReturn(true);
 
         GHMyself myself = PowerMockito.mock(GHMyself.class);
         PowerMockito.when(myself.getAllRepositories()).thenReturn(getRepoMap());
@@ -205,7 +259,6 @@ public class GitHubNotificationPipelineStepTest {
         PowerMockito.whenNew(GitHubBuilder.class).withNoArguments().thenReturn(ghb);
         GitHub gh = PowerMockito.mock(GitHub.class);
         PowerMockito.when(ghb.build()).thenReturn(gh);
-        PowerMockito.when(gh.isCredentialValid()).thenReturn(true);
 
         GHMyself myself = PowerMockito.mock(GHMyself.class);
         PowerMockito.when(myself.getAllRepositories()).thenReturn(getRepoMap());
@@ -236,7 +289,6 @@ public class GitHubNotificationPipelineStepTest {
         PowerMockito.whenNew(GitHubBuilder.class).withNoArguments().thenReturn(ghb);
         GitHub gh = PowerMockito.mock(GitHub.class);
         PowerMockito.when(ghb.build()).thenReturn(gh);
-        PowerMockito.when(gh.isCredentialValid()).thenReturn(true);
 
         GHMyself myself = PowerMockito.mock(GHMyself.class);
         PowerMockito.when(myself.getAllRepositories()).thenReturn(getRepoMap());
@@ -267,7 +319,6 @@ public class GitHubNotificationPipelineStepTest {
         PowerMockito.whenNew(GitHubBuilder.class).withNoArguments().thenReturn(ghb);
         GitHub gh = PowerMockito.mock(GitHub.class);
         PowerMockito.when(ghb.build()).thenReturn(gh);
-        PowerMockito.when(gh.isCredentialValid()).thenReturn(true);
 
         GHMyself myself = PowerMockito.mock(GHMyself.class);
         GHCommit commit = PowerMockito.mock(GHCommit.class);
@@ -290,6 +341,490 @@ public class GitHubNotificationPipelineStepTest {
         jenkins.assertBuildStatus(Result.SUCCESS, jenkins.waitForCompletion(b1));
     }
 
+    @Test
+    public void buildWithAccountDoesNotListRepositories() throws Exception {
+
+        GitHubBuilder ghb = PowerMockito.mock(GitHubBuilder.class);
+        PowerMockito.when(ghb.withProxy(Matchers.<Proxy>anyObject())).thenReturn(ghb);
+        PowerMockito.when(ghb.withOAuthToken(anyString(), anyString())).thenReturn(ghb);
+        PowerMockito.whenNew(GitHubBuilder.class).withNoArguments().thenReturn(ghb);
+        GitHub gh = PowerMockito.mock(GitHub.class);
+        PowerMockito.when(ghb.build()).thenReturn(gh);
+        GHMyself myself = PowerMockito.mock(GHMyself.class);
+        PowerMockito.when(gh.getMyself()).thenReturn(myself);
+
+        GHRepository repo = PowerMockito.mock(GHRepository.class);
+        GHCommit commit = PowerMockito.mock(GHCommit.class);
+        PowerMockito.when(gh.getRepository("raul-arabaolaza/acceptance-test-harness")).thenReturn(repo);
+        PowerMockito.when((repo.getCommit(anyString()))).thenReturn(commit);
+
+        Credentials dummy = new DummyCredentials(CredentialsScope.GLOBAL, "user", "password");
+        SystemCredentialsProvider.getInstance().getCredentials().add(dummy);
+
+        WorkflowJob p = jenkins.createProject(WorkflowJob.class, "p");
+        p.setDefinition(new CpsFlowDefinition(
+                "githubNotify context: 'ATH Results', " +
+                        "credentialsId: 'dummy', description: 'All tests are OK', account: 'raul-arabaolaza', " +
+                        "repo: 'acceptance-test-harness', sha: '0b5936eb903d439ac0c0bf84940d73128d5e9487', " +
+                        "status: 'SUCCESS', targetUrl: 'http://www.cloudbees.com'"
+        ));
+        WorkflowRun b1 = p.scheduleBuild2(0).waitForStart();
+        jenkins.assertBuildStatus(Result.SUCCESS, jenkins.waitForCompletion(b1));
+        Mockito.verify(myself, Mockito.never()).getAllRepositories();
+    }
+
+    @Test
+    public void buildWithRepoDoesNotInferAccount() throws Exception {
+
+        GitHubBuilder ghb = PowerMockito.mock(GitHubBuilder.class);
+        PowerMockito.when(ghb.withProxy(Matchers.<Proxy>anyObject())).thenReturn(ghb);
+        PowerMockito.when(ghb.withOAuthToken(anyString(), anyString())).thenReturn(ghb);
+        PowerMockito.whenNew(GitHubBuilder.class).withNoArguments().thenReturn(ghb);
+        GitHub gh = PowerMockito.mock(GitHub.class);
+        PowerMockito.when(ghb.build()).thenReturn(gh);
+
+        GHMyself myself = PowerMockito.mock(GHMyself.class);
+        GHCommit commit = PowerMockito.mock(GHCommit.class);
+        Map<String, GHRepository> repositories = getRepoMap();
+        PowerMockito.when(myself.getAllRepositories()).thenReturn(repositories);
+        PowerMockito.when(gh.getMyself()).thenReturn(myself);
+        GHRepository repo = repositories.get("acceptance-test-harness");
+        PowerMockito.when((repo.getCommit(anyString()))).thenReturn(commit);
+
+        // the owner of the SCM source is not the owner of the repository given to the step
+        RunInference inference = PowerMockito.mock(RunInference.class);
+        PowerMockito.when(inference.inferAccount()).thenReturn("raul-arabaolaza");
+        PowerMockito.whenNew(RunInference.class).withAnyArguments().thenReturn(inference);
+
+        Credentials dummy = new DummyCredentials(CredentialsScope.GLOBAL, "user", "password");
+        SystemCredentialsProvider.getInstance().getCredentials().add(dummy);
+
+        WorkflowJob p = jenkins.createProject(WorkflowJob.class, "p");
+        p.setDefinition(new CpsFlowDefinition(
+                "githubNotify context: 'ATH Results', " +
+                        "credentialsId: 'dummy', description: 'All tests are OK', " +
+                        "repo: 'acceptance-test-harness', sha: '0b5936eb903d439ac0c0bf84940d73128d5e9487', " +
+                        "status: 'SUCCESS', targetUrl: 'http://www.cloudbees.com'"
+        ));
+        WorkflowRun b1 = p.scheduleBuild2(0).waitForStart();
+        jenkins.assertBuildStatus(Result.SUCCESS, jenkins.waitForCompletion(b1));
+        Mockito.verify(inference, Mockito.never()).inferAccount();
+        Mockito.verify(gh, Mockito.never()).getRepository(anyString());
+        Mockito.verify(repo).createCommitStatus("0b5936eb903d439ac0c0bf84940d73128d5e9487",
+                GHCommitState.SUCCESS, "http://www.cloudbees.com", "All tests are OK", "ATH Results");
+    }
+
+    @Test
+    public void missingRepositoryIsRememberedBetweenBuilds() throws Exception {
+
+        GitHubBuilder ghb = PowerMockito.mock(GitHubBuilder.class);
+        PowerMockito.when(ghb.withProxy(Matchers.<Proxy>anyObject())).thenReturn(ghb);
+        PowerMockito.when(ghb.withOAuthToken(anyString(), anyString())).thenReturn(ghb);
+        PowerMockito.whenNew(GitHubBuilder.class).withNoArguments().thenReturn(ghb);
+        GitHub gh = PowerMockito.mock(GitHub.class);
+        PowerMockito.when(ghb.build()).thenReturn(gh);
+        PowerMockito.when(gh.getRepository(anyString())).thenThrow(FileNotFoundException.class);
+
+        Credentials dummy = new DummyCredentials(CredentialsScope.GLOBAL, "user", "password");
+        SystemCredentialsProvider.getInstance().getCredentials().add(dummy);
+
+        WorkflowJob p = jenkins.createProject(WorkflowJob.class, "p");
+        p.setDefinition(new CpsFlowDefinition(
+                "githubNotify context: 'ATH Results', " +
+                        "credentialsId: 'dummy', description: 'All tests are OK', account: 'raul-arabaolaza', " +
+                        "repo: 'acceptance-test-harnes', sha: '0b5936eb903d439ac0c0bf84940d73128d5e9487', " +
+                        "status: 'SUCCESS', targetUrl: 'http://www.cloudbees.com'"
+        ));
+        WorkflowRun b1 = p.scheduleBuild2(0).waitForStart();
+        jenkins.assertBuildStatus(Result.FAILURE, jenkins.waitForCompletion(b1));
+        jenkins.assertLogContains(GitHubStatusNotificationStep.INVALID_REPO, b1);
+        WorkflowRun b2 = p.scheduleBuild2(0).waitForStart();
+        jenkins.assertBuildStatus(Result.FAILURE, jenkins.waitForCompletion(b2));
+        jenkins.assertLogContains(GitHubStatusNotificationStep.INVALID_REPO, b2);
+        Mockito.verify(gh, Mockito.times(1)).getRepository(anyString());
+    }
+
+    @Test
+    public void consecutiveBuildsReuseClient() throws Exception {
+
+        GitHubBuilder ghb = PowerMockito.mock(GitHubBuilder.class);
+        PowerMockito.when(ghb.withProxy(Matchers.<Proxy>anyObject())).thenReturn(ghb);
+        PowerMockito.when(ghb.withOAuthToken(anyString(), anyString())).thenReturn(ghb);
+        PowerMockito.whenNew(GitHubBuilder.class).withNoArguments().thenReturn(ghb);
+        GitHub gh = PowerMockito.mock(GitHub.class);
+        PowerMockito.when(ghb.build()).thenReturn(gh);
+
+        GHMyself myself = PowerMockito.mock(GHMyself.class);
+        GHCommit commit = PowerMockito.mock(GHCommit.class);
+        PowerMockito.when(myself.getAllRepositories()).thenReturn(getRepoMap());
+        PowerMockito.when(gh.getMyself()).thenReturn(myself);
+        GHRepository repo = myself.getAllRepositories().get("acceptance-test-harness");
+        PowerMockito.when((repo.getCommit(anyString()))).thenReturn(commit);
+
+        Credentials dummy = new DummyCredentials(CredentialsScope.GLOBAL, "user", "password");
+        SystemCredentialsProvider.getInstance().getCredentials().add(dummy);
+
+        WorkflowJob p = jenkins.createProject(WorkflowJob.class, "p");
+        p.setDefinition(new CpsFlowDefinition(
+                "githubNotify context: 'ATH Results', " +
+                        "credentialsId: 'dummy', description: 'All tests are OK', " +
+                        "repo: 'acceptance-test-harness', sha: '0b5936eb903d439ac0c0bf84940d73128d5e9487', " +
+                        "status: 'SUCCESS', targetUrl: 'http://www.cloudbees.com'"
+        ));
+        jenkins.assertBuildStatus(Result.SUCCESS, jenkins.waitForCompletion(p.scheduleBuild2(0).waitForStart()));
+        jenkins.assertBuildStatus(Result.SUCCESS, jenkins.waitForCompletion(p.scheduleBuild2(0).waitForStart()));
+        Mockito.verify(ghb, Mockito.times(1)).build();
+        // a single validation, then one repository lookup per build
+        Mockito.verify(gh, Mockito.times(1)).getRateLimit();
+        Mockito.verify(gh, Mockito.times(2)).getMyself();
+    }
+
+    @Test
+    public void buildSkipsUnchangedStatus() throws Exception {
+
+        GitHubBuilder ghb = PowerMockito.mock(GitHubBuilder.class);
+        PowerMockito.when(ghb.withProxy(Matchers.<Proxy>anyObject())).thenReturn(ghb);
+        PowerMockito.when(ghb.withOAuthToken(anyString(), anyString())).thenReturn(ghb);
+        PowerMockito.whenNew(GitHubBuilder.class).withNoArguments().thenReturn(ghb);
+        GitHub gh = PowerMockito.mock(GitHub.class);
+        PowerMockito.when(ghb.build()).thenReturn(gh);
+
+        GHMyself myself = PowerMockito.mock(GHMyself.class);
+        GHCommit commit = PowerMockito.mock(GHCommit.class);
+        PowerMockito.when(myself.getAllRepositories()).thenReturn(getRepoMap());
+        PowerMockito.when(gh.getMyself()).thenReturn(myself);
+        GHRepository repo = myself.getAllRepositories().get("acceptance-test-harness");
+        PowerMockito.when((repo.getCommit(anyString()))).thenReturn(commit);
+
+        Credentials dummy = new DummyCredentials(CredentialsScope.GLOBAL, "user", "password");
+        SystemCredentialsProvider.getInstance().getCredentials().add(dummy);
+
+        WorkflowJob p = jenkins.createProject(WorkflowJob.class, "p");
+        p.setDefinition(new CpsFlowDefinition(
+                "githubNotify context: 'ATH Results', skipIfUnchanged: true, " +
+                        "credentialsId: 'dummy', description: 'All tests are OK', " +
+                        "repo: 'acceptance-test-harness', sha: '0b5936eb903d439ac0c0bf84940d73128d5e9487', " +
+                        "status: 'SUCCESS', targetUrl: 'http://www.cloudbees.com'"
+        ));
+        jenkins.assertBuildStatus(Result.SUCCESS, jenkins.waitForCompletion(p.scheduleBuild2(0).waitForStart()));
+        jenkins.assertBuildStatus(Result.SUCCESS, jenkins.waitForCompletion(p.scheduleBuild2(0).waitForStart()));
+        Mockito.verify(repo, Mockito.times(1)).createCommitStatus(anyString(), Matchers.<GHCommitState>anyObject(),
+                anyString(), anyString(), anyString());
+    }
+
+    @Test
+    public void rotatedCredentialsAreEvicted() throws Exception {
+
+        GitHubBuilder ghb = PowerMockito.mock(GitHubBuilder.class);
+        PowerMockito.when(ghb.withProxy(Matchers.<Proxy>anyObject())).thenReturn(ghb);
+        PowerMockito.when(ghb.withOAuthToken(anyString(), anyString())).thenReturn(ghb);
+        PowerMockito.whenNew(GitHubBuilder.class).withNoArguments().thenReturn(ghb);
+        GitHub gh = PowerMockito.mock(GitHub.class);
+        PowerMockito.when(ghb.build()).thenReturn(gh);
+
+        GHMyself myself = PowerMockito.mock(GHMyself.class);
+        GHCommit commit = PowerMockito.mock(GHCommit.class);
+        PowerMockito.when(myself.getAllRepositories()).thenReturn(getRepoMap());
+        PowerMockito.when(gh.getMyself()).thenReturn(myself);
+        GHRepository repo = myself.getAllRepositories().get("acceptance-test-harness");
+        PowerMockito.when((repo.getCommit(anyString()))).thenReturn(commit);
+
+        Credentials dummy = new DummyCredentials(CredentialsScope.GLOBAL, "user", "password");
+        SystemCredentialsProvider.getInstance().getCredentials().add(dummy);
+
+        WorkflowJob p = jenkins.createProject(WorkflowJob.class, "p");
+        p.setDefinition(new CpsFlowDefinition(
+                "githubNotify context: 'ATH Results', " +
+                        "credentialsId: 'dummy', description: 'All tests are OK', " +
+                        "repo: 'acceptance-test-harness', sha: '0b5936eb903d439ac0c0bf84940d73128d5e9487', " +
+                        "status: 'SUCCESS', targetUrl: 'http://www.cloudbees.com'"
+        ));
+        jenkins.assertBuildStatus(Result.SUCCESS, jenkins.waitForCompletion(p.scheduleBuild2(0).waitForStart()));
+        Assert.assertEquals(1, GitHubClientCache.get().size());
+
+        // saving a store without touching the credentials keeps the client
+        SystemCredentialsProvider.getInstance().save();
+        CredentialsChangeListener.get().awaitRecheck();
+        Assert.assertEquals(1, GitHubClientCache.get().size());
+
+        SystemCredentialsProvider.getInstance().getCredentials().remove(dummy);
+        SystemCredentialsProvider.getInstance().save();
+        CredentialsChangeListener.get().awaitRecheck();
+        Assert.assertEquals(0, GitHubClientCache.get().size());
+    }
+
+    @Test
+    public void unauthorizedStatusInvalidatesCredentials() throws Exception {
+
+        GitHubBuilder ghb = PowerMockito.mock(GitHubBuilder.class);
+        PowerMockito.when(ghb.withProxy(Matchers.<Proxy>anyObject())).thenReturn(ghb);
+        PowerMockito.when(ghb.withOAuthToken(anyString(), anyString())).thenReturn(ghb);
+        PowerMockito.whenNew(GitHubBuilder.class).withNoArguments().thenReturn(ghb);
+        GitHub gh = PowerMockito.mock(GitHub.class);
+        PowerMockito.when(ghb.build()).thenReturn(gh);
+
+        GHMyself myself = PowerMockito.mock(GHMyself.class);
+        GHCommit commit = PowerMockito.mock(GHCommit.class);
+        PowerMockito.when(myself.getAllRepositories()).thenReturn(getRepoMap());
+        PowerMockito.when(gh.getMyself()).thenReturn(myself);
+        GHRepository repo = myself.getAllRepositories().get("acceptance-test-harness");
+        PowerMockito.when((repo.getCommit(anyString()))).thenReturn(commit);
+        PowerMockito.when(repo.createCommitStatus(anyString(), Matchers.<GHCommitState>anyObject(), anyString(), anyString(), anyString()))
+                .thenThrow(new HttpException("Bad credentials", 401, "Unauthorized", "https://api.github.com"));
+
+        Credentials dummy = new DummyCredentials(CredentialsScope.GLOBAL, "user", "password");
+        SystemCredentialsProvider.getInstance().getCredentials().add(dummy);
+
+        WorkflowJob p = jenkins.createProject(WorkflowJob.class, "p");
+        p.setDefinition(new CpsFlowDefinition(
+                "githubNotify context: 'ATH Results', " +
+                        "credentialsId: 'dummy', description: 'All tests are OK', " +
+                        "repo: 'acceptance-test-harness', sha: '0b5936eb903d439ac0c0bf84940d73128d5e9487', " +
+                        "status: 'SUCCESS', targetUrl: 'http://www.cloudbees.com'"
+        ));
+        WorkflowRun b1 = p.scheduleBuild2(0).waitForStart();
+        jenkins.assertBuildStatus(Result.FAILURE, jenkins.waitForCompletion(b1));
+        jenkins.assertLogContains(GitHubStatusNotificationStep.CREDENTIALS_INVALID, b1);
+        WorkflowRun b2 = p.scheduleBuild2(0).waitForStart();
+        jenkins.assertBuildStatus(Result.FAILURE, jenkins.waitForCompletion(b2));
+        jenkins.assertLogContains(GitHubStatusNotificationStep.CREDENTIALS_INVALID, b2);
+        Mockito.verify(repo, Mockito.times(1)).createCommitStatus(anyString(), Matchers.<GHCommitState>anyObject(),
+                anyString(), anyString(), anyString());
+    }
+
+    @Test
+    public void buildAsync() throws Exception {
+
+        GitHubBuilder ghb = PowerMockito.mock(GitHubBuilder.class);
+        PowerMockito.when(ghb.withProxy(Matchers.<Proxy>anyObject())).thenReturn(ghb);
+        PowerMockito.when(ghb.withOAuthToken(anyString(), anyString())).thenReturn(ghb);
+        PowerMockito.whenNew(GitHubBuilder.class).withNoArguments().thenReturn(ghb);
+        GitHub gh = PowerMockito.mock(GitHub.class);
+        PowerMockito.when(ghb.build()).thenReturn(gh);
+
+        GHMyself myself = PowerMockito.mock(GHMyself.class);
+        GHCommit commit = PowerMockito.mock(GHCommit.class);
+        PowerMockito.when(commit.getSHA1()).thenReturn("0b5936eb903d439ac0c0bf84940d73128d5e9487");
+        PowerMockito.when(myself.getAllRepositories()).thenReturn(getRepoMap());
+        PowerMockito.when(gh.getMyself()).thenReturn(myself);
+        GHRepository repo = myself.getAllRepositories().get("acceptance-test-harness");
+        PowerMockito.when((repo.getCommit(anyString()))).thenReturn(commit);
+
+        Credentials dummy = new DummyCredentials(CredentialsScope.GLOBAL, "user", "password");
+        SystemCredentialsProvider.getInstance().getCredentials().add(dummy);
+
+        WorkflowJob p = jenkins.createProject(WorkflowJob.class, "p");
+        p.setDefinition(new CpsFlowDefinition(
+                "githubNotify context: 'ATH Results', " +
+                        "credentialsId: 'dummy', description: 'All tests are OK', " +
+                        "repo: 'acceptance-test-harness', sha: '0b5936eb903d439ac0c0bf84940d73128d5e9487', " +
+                        "status: 'SUCCESS', targetUrl: 'http://www.cloudbees.com', async: true"
+        ));
+        WorkflowRun b1 = p.scheduleBuild2(0).waitForStart();
+        jenkins.assertBuildStatus(Result.SUCCESS, jenkins.waitForCompletion(b1));
+        Mockito.verify(repo, Mockito.timeout(10000)).createCommitStatus("0b5936eb903d439ac0c0bf84940d73128d5e9487",
+                GHCommitState.SUCCESS, "http://www.cloudbees.com", "All tests are OK", "ATH Results");
+    }
+
+    @Test
+    public void queuedNotificationsForTheSameContextAreCoalesced() throws Exception {
+
+        GitHubBuilder ghb = PowerMockito.mock(GitHubBuilder.class);
+        PowerMockito.when(ghb.withProxy(Matchers.<Proxy>anyObject())).thenReturn(ghb);
+        PowerMockito.when(ghb.withOAuthToken(anyString(), anyString())).thenReturn(ghb);
+        PowerMockito.whenNew(GitHubBuilder.class).withNoArguments().thenReturn(ghb);
+        GitHub gh = PowerMockito.mock(GitHub.class);
+        PowerMockito.when(ghb.build()).thenReturn(gh);
+
+        GHMyself myself = PowerMockito.mock(GHMyself.class);
+        GHCommit commit = PowerMockito.mock(GHCommit.class);
+        PowerMockito.when(myself.getAllRepositories()).thenReturn(getRepoMap());
+        PowerMockito.when(gh.getMyself()).thenReturn(myself);
+        GHRepository repo = myself.getAllRepositories().get("acceptance-test-harness");
+        PowerMockito.when((repo.getCommit(anyString()))).thenReturn(commit);
+        CountDownLatch sending = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        PowerMockito.when(repo.createCommitStatus(anyString(), Matchers.<GHCommitState>anyObject(), anyString(), anyString(), anyString()))
+                .thenAnswer(invocation -> {
+                    sending.countDown();
+                    release.await(10, TimeUnit.SECONDS);
+                    return null;
+                });
+
+        Credentials dummy = new DummyCredentials(CredentialsScope.GLOBAL, "user", "password");
+        SystemCredentialsProvider.getInstance().getCredentials().add(dummy);
+        jenkins.createProject(WorkflowJob.class, "p");
+
+        NotificationDispatcher dispatcher = NotificationDispatcher.get();
+        long superseded = dispatcher.getSupersededCount();
+        dispatcher.submit(notification(GHCommitState.PENDING, "Build started"));
+        Assert.assertTrue(sending.await(10, TimeUnit.SECONDS));
+        // the first status is being sent, the following ones replace each other until it is done
+        dispatcher.submit(notification(GHCommitState.PENDING, "Tests running"));
+        dispatcher.submit(notification(GHCommitState.PENDING, "Tests almost done"));
+        dispatcher.submit(notification(GHCommitState.SUCCESS, "All tests are OK"));
+        release.countDown();
+
+        Mockito.verify(repo, Mockito.timeout(10000)).createCommitStatus("0b5936eb903d439ac0c0bf84940d73128d5e9487",
+                GHCommitState.SUCCESS, "http://www.cloudbees.com", "All tests are OK", "ATH Results");
+        Mockito.verify(repo, Mockito.times(2)).createCommitStatus(anyString(), Matchers.<GHCommitState>anyObject(),
+                anyString(), anyString(), anyString());
+        Mockito.verify(repo).createCommitStatus("0b5936eb903d439ac0c0bf84940d73128d5e9487",
+                GHCommitState.PENDING, "http://www.cloudbees.com", "Build started", "ATH Results");
+        Assert.assertEquals(superseded + 2, dispatcher.getSupersededCount());
+    }
+
+    @Test
+    public void buildRetriesServerErrors() throws Exception {
+
+        GitHubBuilder ghb = PowerMockito.mock(GitHubBuilder.class);
+        PowerMockito.when(ghb.withProxy(Matchers.<Proxy>anyObject())).thenReturn(ghb);
+        PowerMockito.when(ghb.withOAuthToken(anyString(), anyString())).thenReturn(ghb);
+        PowerMockito.whenNew(GitHubBuilder.class).withNoArguments().thenReturn(ghb);
+        GitHub gh = PowerMockito.mock(GitHub.class);
+        PowerMockito.when(ghb.build()).thenReturn(gh);
+
+        GHMyself myself = PowerMockito.mock(GHMyself.class);
+        GHCommit commit = PowerMockito.mock(GHCommit.class);
+        PowerMockito.when(myself.getAllRepositories()).thenReturn(getRepoMap());
+        PowerMockito.when(gh.getMyself()).thenReturn(myself);
+        GHRepository repo = myself.getAllRepositories().get("acceptance-test-harness");
+        PowerMockito.when((repo.getCommit(anyString()))).thenReturn(commit);
+        PowerMockito.when(repo.createCommitStatus(anyString(), Matchers.<GHCommitState>anyObject(), anyString(), anyString(), anyString()))
+                .thenThrow(new HttpException("Bad Gateway", 502, "Bad Gateway", "https://api.github.com"))
+                .thenReturn(null);
+
+        Credentials dummy = new DummyCredentials(CredentialsScope.GLOBAL, "user", "password");
+        SystemCredentialsProvider.getInstance().getCredentials().add(dummy);
+
+        WorkflowJob p = jenkins.createProject(WorkflowJob.class, "p");
+        p.setDefinition(new CpsFlowDefinition(
+                "githubNotify context: 'ATH Results', " +
+                        "credentialsId: 'dummy', description: 'All tests are OK', " +
+                        "repo: 'acceptance-test-harness', sha: '0b5936eb903d439ac0c0bf84940d73128d5e9487', " +
+                        "status: 'SUCCESS', targetUrl: 'http://www.cloudbees.com'"
+        ));
+        WorkflowRun b1 = p.scheduleBuild2(0).waitForStart();
+        jenkins.assertBuildStatus(Result.SUCCESS, jenkins.waitForCompletion(b1));
+        jenkins.assertLogContains("retrying in", b1);
+    }
+
+    @Test
+    public void commitServerErrorIsRetried() throws Exception {
+
+        GitHubBuilder ghb = PowerMockito.mock(GitHubBuilder.class);
+        PowerMockito.when(ghb.withProxy(Matchers.<Proxy>anyObject())).thenReturn(ghb);
+        PowerMockito.when(ghb.withOAuthToken(anyString(), anyString())).thenReturn(ghb);
+        PowerMockito.whenNew(GitHubBuilder.class).withNoArguments().thenReturn(ghb);
+        GitHub gh = PowerMockito.mock(GitHub.class);
+        PowerMockito.when(ghb.build()).thenReturn(gh);
+
+        GHMyself myself = PowerMockito.mock(GHMyself.class);
+        GHCommit commit = PowerMockito.mock(GHCommit.class);
+        PowerMockito.when(commit.getSHA1()).thenReturn("0b5936eb903d439ac0c0bf84940d73128d5e9487");
+        PowerMockito.when(myself.getAllRepositories()).thenReturn(getRepoMap());
+        PowerMockito.when(gh.getMyself()).thenReturn(myself);
+        GHRepository repo = myself.getAllRepositories().get("acceptance-test-harness");
+        PowerMockito.when((repo.getCommit(anyString())))
+                .thenThrow(new HttpException("Bad Gateway", 502, "Bad Gateway", "https://api.github.com"))
+                .thenReturn(commit);
+
+        Credentials dummy = new DummyCredentials(CredentialsScope.GLOBAL, "user", "password");
+        SystemCredentialsProvider.getInstance().getCredentials().add(dummy);
+
+        WorkflowJob p = jenkins.createProject(WorkflowJob.class, "p");
+        p.setDefinition(new CpsFlowDefinition(
+                "githubNotify context: 'ATH Results', " +
+                        "credentialsId: 'dummy', description: 'All tests are OK', " +
+                        "repo: 'acceptance-test-harness', sha: '0b5936eb903d439ac0c0bf84940d73128d5e9487', " +
+                        "status: 'SUCCESS', targetUrl: 'http://www.cloudbees.com'"
+        ));
+        WorkflowRun b1 = p.scheduleBuild2(0).waitForStart();
+        jenkins.assertBuildStatus(Result.SUCCESS, jenkins.waitForCompletion(b1));
+        jenkins.assertLogContains("retrying in", b1);
+        Mockito.verify(repo, Mockito.times(2)).getCommit(anyString());
+        Mockito.verify(repo).createCommitStatus(anyString(), Matchers.<GHCommitState>anyObject(), anyString(),
+                anyString(), anyString());
+    }
+
+    @Test
+    public void validationServerErrorIsRetried() throws Exception {
+
+        GitHubBuilder ghb = PowerMockito.mock(GitHubBuilder.class);
+        PowerMockito.when(ghb.withProxy(Matchers.<Proxy>anyObject())).thenReturn(ghb);
+        PowerMockito.when(ghb.withOAuthToken(anyString(), anyString())).thenReturn(ghb);
+        PowerMockito.whenNew(GitHubBuilder.class).withNoArguments().thenReturn(ghb);
+        GitHub gh = PowerMockito.mock(GitHub.class);
+        PowerMockito.when(ghb.build()).thenReturn(gh);
+
+        GHMyself myself = PowerMockito.mock(GHMyself.class);
+        GHCommit commit = PowerMockito.mock(GHCommit.class);
+        PowerMockito.when(myself.getAllRepositories()).thenReturn(getRepoMap());
+        PowerMockito.when(gh.getMyself()).thenReturn(myself);
+        PowerMockito.when(gh.getRateLimit())
+                .thenThrow(new HttpException("Bad Gateway", 502, "Bad Gateway", "https://api.github.com/rate_limit"))
+                .thenReturn(new GHRateLimit());
+        GHRepository repo = myself.getAllRepositories().get("acceptance-test-harness");
+        PowerMockito.when((repo.getCommit(anyString()))).thenReturn(commit);
+
+        Credentials dummy = new DummyCredentials(CredentialsScope.GLOBAL, "user", "password");
+        SystemCredentialsProvider.getInstance().getCredentials().add(dummy);
+
+        WorkflowJob p = jenkins.createProject(WorkflowJob.class, "p");
+        p.setDefinition(new CpsFlowDefinition(
+                "githubNotify context: 'ATH Results', " +
+                        "credentialsId: 'dummy', description: 'All tests are OK', " +
+                        "repo: 'acceptance-test-harness', sha: '0b5936eb903d439ac0c0bf84940d73128d5e9487', " +
+                        "status: 'SUCCESS', targetUrl: 'http://www.cloudbees.com'"
+        ));
+        WorkflowRun b1 = p.scheduleBuild2(0).waitForStart();
+        jenkins.assertBuildStatus(Result.SUCCESS, jenkins.waitForCompletion(b1));
+        jenkins.assertLogContains("retrying in", b1);
+        jenkins.assertLogNotContains(GitHubStatusNotificationStep.CREDENTIALS_INVALID, b1);
+    }
+
+    @Test
+    public void buildBatch() throws Exception {
+
+        GitHubBuilder ghb = PowerMockito.mock(GitHubBuilder.class);
+        PowerMockito.when(ghb.withProxy(Matchers.<Proxy>anyObject())).thenReturn(ghb);
+        PowerMockito.when(ghb.withOAuthToken(anyString(), anyString())).thenReturn(ghb);
+        PowerMockito.whenNew(GitHubBuilder.class).withNoArguments().thenReturn(ghb);
+        GitHub gh = PowerMockito.mock(GitHub.class);
+        PowerMockito.when(ghb.build()).thenReturn(gh);
+
+        GHMyself myself = PowerMockito.mock(GHMyself.class);
+        GHCommit commit = PowerMockito.mock(GHCommit.class);
+        PowerMockito.when(commit.getSHA1()).thenReturn("0b5936eb903d439ac0c0bf84940d73128d5e9487");
+        PowerMockito.when(myself.getAllRepositories()).thenReturn(getRepoMap());
+        PowerMockito.when(gh.getMyself()).thenReturn(myself);
+        GHRepository repo = myself.getAllRepositories().get("acceptance-test-harness");
+        PowerMockito.when((repo.getCommit(anyString()))).thenReturn(commit);
+
+        Credentials dummy = new DummyCredentials(CredentialsScope.GLOBAL, "user", "password");
+        SystemCredentialsProvider.getInstance().getCredentials().add(dummy);
+
+        WorkflowJob p = jenkins.createProject(WorkflowJob.class, "p");
+        p.setDefinition(new CpsFlowDefinition(
+                "def results = githubNotifyAll credentialsId: 'dummy', repo: 'acceptance-test-harness', notifications: [" +
+                        "[context: 'unit', description: 'Unit tests are OK', status: 'SUCCESS', " +
+                        "sha: '0b5936eb903d439ac0c0bf84940d73128d5e9487', targetUrl: 'http://www.cloudbees.com'], " +
+                        "[context: 'it', description: 'Integration tests failed', status: 'FAILURE', " +
+                        "sha: '0b5936eb903d439ac0c0bf84940d73128d5e9487', targetUrl: 'http://www.cloudbees.com']]\n" +
+                        "echo \"results: ${results.collect { it.result }}\""
+        ));
+        WorkflowRun b1 = p.scheduleBuild2(0).waitForStart();
+        jenkins.assertBuildStatus(Result.SUCCESS, jenkins.waitForCompletion(b1));
+        jenkins.assertLogContains("results: [SUCCESS, SUCCESS]", b1);
+        // a single validation and a single repository lookup for the whole batch
+        Mockito.verify(gh, Mockito.times(1)).getRateLimit();
+        Mockito.verify(gh, Mockito.times(1)).getMyself();
+        Mockito.verify(repo).createCommitStatus("0b5936eb903d439ac0c0bf84940d73128d5e9487",
+                GHCommitState.SUCCESS, "http://www.cloudbees.com", "Unit tests are OK", "unit");
+        Mockito.verify(repo).createCommitStatus("0b5936eb903d439ac0c0bf84940d73128d5e9487",
+                GHCommitState.FAILURE, "http://www.cloudbees.com", "Integration tests failed", "it");
+    }
+
     @Test
     public void buildWithFolderCredentials() throws Exception {
 
@@ -299,7 +834,6 @@ public class GitHubNotificationPipelineStepTest {
         PowerMockito.whenNew(GitHubBuilder.class).withNoArguments().thenReturn(ghb);
         GitHub gh = PowerMockito.mock(GitHub.class);
         PowerMockito.when(ghb.build()).thenReturn(gh);
-        PowerMockito.when(gh.isCredentialValid()).thenReturn(true);
 
         GHMyself myself = PowerMockito.mock(GHMyself.class);
         GHCommit commit = PowerMockito.mock(GHCommit.class);
@@ -334,7 +868,6 @@ public class GitHubNotificationPipelineStepTest {
         PowerMockito.whenNew(GitHubBuilder.class).withNoArguments().thenReturn(ghb);
         GitHub gh = PowerMockito.mock(GitHub.class);
         PowerMockito.when(ghb.build()).thenReturn(gh);
-        PowerMockito.when(gh.isCredentialValid()).thenReturn(true);
 
         GHMyself myself = PowerMockito.mock(GHMyself.class);
         GHCommit commit = PowerMockito.mock(GHCommit.class);
@@ -357,6 +890,36 @@ public class GitHubNotificationPipelineStepTest {
         jenkins.assertBuildStatus(Result.SUCCESS, jenkins.waitForCompletion(b1));
     }
 
+    @Test
+    public void credentialsIndexIsKeptUntilAStoreIsSaved() throws Exception {
+        Credentials dummy = new DummyCredentials(CredentialsScope.GLOBAL, "user", "password");
+        SystemCredentialsProvider.getInstance().getCredentials().add(dummy);
+        WorkflowJob p = jenkins.createProject(WorkflowJob.class, "p");
+        CredentialsIndex index = CredentialsIndex.get();
+        Assert.assertSame(dummy, index.lookup("dummy", p));
+
+        // removed without saving the store, lookups keep using the index as long as no store is saved
+        SystemCredentialsProvider.getInstance().getCredentials().remove(dummy);
+        jenkins.jenkins.save();
+        p.save();
+        Assert.assertSame(dummy, index.lookup("dummy", p));
+
+        SystemCredentialsProvider.getInstance().save();
+        Assert.assertNull(index.lookup("dummy", p));
+    }
+
+    @Test
+    public void credentialsIndexIsDroppedWhenAFolderStoreIsSaved() throws Exception {
+        Folder f = jenkins.jenkins.createProject(Folder.class, "folder" + jenkins.jenkins.getItems().size());
+        CredentialsStore folderStore = getFolderStore(f);
+        WorkflowJob p = f.createProject(WorkflowJob.class, "p");
+        CredentialsIndex index = CredentialsIndex.get();
+        Assert.assertNull(index.lookup("dummy", p));
+
+        folderStore.addCredentials(Domain.global(), new DummyCredentials(CredentialsScope.GLOBAL, "user", "password"));
+        Assert.assertNotNull(index.lookup("dummy", p));
+    }
+
     private CredentialsStore getFolderStore(Folder f) {
         Iterable<CredentialsStore> stores = CredentialsProvider.lookupStores(f);
         CredentialsStore folderStore = null;
@@ -369,6 +932,12 @@ public class GitHubNotificationPipelineStepTest {
         return folderStore;
     }
 
+    private GitHubStatusNotification notification(GHCommitState status, String description) {
+        return new GitHubStatusNotification("p", "dummy", null, null, "acceptance-test-harness",
+                "0b5936eb903d439ac0c0bf84940d73128d5e9487", status, description, "ATH Results",
+                "http://www.cloudbees.com", true);
+    }
+
     private Map<String, GHRepository> getRepoMap() {
         GHRepository repo = PowerMockito.mock(GHRepository.class);
         return new HashMap<String, GHRepository>() {{
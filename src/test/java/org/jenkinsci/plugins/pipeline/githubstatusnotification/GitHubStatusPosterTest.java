@@ -0,0 +1,115 @@
+package org.jenkinsci.plugins.pipeline.githubstatusnotification;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.kohsuke.github.GHCommitState;
+import org.kohsuke.github.HttpConnector;
+import org.kohsuke.github.HttpException;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Runs {@link GitHubStatusPoster} against a local stand-in for the statuses endpoint
+ */
+public class GitHubStatusPosterTest {
+
+    private static final String SHA = "0b5936eb903d439ac0c0bf84940d73128d5e9487";
+
+    private HttpServer server;
+    private GitHubStatusPoster poster;
+    private volatile String lastRequest;
+    private volatile String lastPath;
+    private volatile String lastAuthorization;
+    private volatile int remaining = 4999;
+
+    @Before
+    public void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", this::handle);
+        server.start();
+        HttpConnector connector = url -> (HttpURLConnection) url.openConnection();
+        poster = new GitHubStatusPoster("http://127.0.0.1:" + server.getAddress().getPort() + "/", "token secret", connector);
+    }
+
+    @After
+    public void stopServer() {
+        server.stop(0);
+    }
+
+    @Test
+    public void statusIsPostedWithoutReadingTheRepository() throws Exception {
+        poster.createCommitStatus("raul-arabaolaza/acceptance-test-harness", SHA, GHCommitState.SUCCESS,
+                "http://www.cloudbees.com", "All tests are OK", "ATH Results");
+        assertEquals("/repos/raul-arabaolaza/acceptance-test-harness/statuses/" + SHA, lastPath);
+        assertEquals("token secret", lastAuthorization);
+        assertTrue(lastRequest, lastRequest.contains("\"state\":\"success\""));
+        assertTrue(lastRequest, lastRequest.contains("\"context\":\"ATH Results\""));
+        assertEquals(4999, poster.lastRateLimit().remaining);
+        assertEquals(5000, poster.lastRateLimit().limit);
+    }
+
+    @Test
+    public void unknownCommitIsRejected() throws Exception {
+        try {
+            poster.createCommitStatus("raul-arabaolaza/acceptance-test-harness", "unknown", GHCommitState.SUCCESS,
+                    null, "All tests are OK", "ATH Results");
+            fail("the status should have been rejected");
+        } catch (HttpException e) {
+            assertEquals(422, e.getResponseCode());
+        }
+    }
+
+    @Test
+    public void exhaustedRateLimitIsPaced() throws Exception {
+        remaining = 0;
+        try {
+            poster.createCommitStatus("raul-arabaolaza/acceptance-test-harness", SHA, GHCommitState.SUCCESS,
+                    null, "All tests are OK", "ATH Results");
+            fail("the status should have been paced");
+        } catch (RetryPolicy.PacedException e) {
+            assertTrue(e.getDelayMillis() > TimeUnit.SECONDS.toMillis(590));
+        }
+        assertEquals(0, poster.lastRateLimit().remaining);
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        lastPath = exchange.getRequestURI().getPath();
+        lastRequest = IOUtils.toString(exchange.getRequestBody(), StandardCharsets.UTF_8.name());
+        lastAuthorization = exchange.getRequestHeaders().getFirst("Authorization");
+        long reset = TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis()) + 600;
+        exchange.getResponseHeaders().add("X-RateLimit-Limit", "5000");
+        exchange.getResponseHeaders().add("X-RateLimit-Remaining", Integer.toString(remaining));
+        exchange.getResponseHeaders().add("X-RateLimit-Reset", Long.toString(reset));
+        int code;
+        String body;
+        if (remaining == 0) {
+            code = 403;
+            body = "{\"message\":\"API rate limit exceeded\"}";
+        } else if (!lastPath.endsWith("/" + SHA)) {
+            code = 422;
+            body = "{\"message\":\"No commit found for SHA: unknown\"}";
+        } else {
+            code = 201;
+            body = "{\"state\":\"success\"}";
+        }
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().add("Content-Type", "application/json");
+        exchange.sendResponseHeaders(code, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+}
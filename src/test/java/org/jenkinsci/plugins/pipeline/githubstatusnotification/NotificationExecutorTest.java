@@ -0,0 +1,87 @@
+package org.jenkinsci.plugins.pipeline.githubstatusnotification;
+
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks how a saturated {@link NotificationExecutor} handles more notifications
+ */
+public class NotificationExecutorTest {
+
+    @Test
+    public void queueAsyncIsTheDefaultPolicy() {
+        assertEquals(NotificationExecutor.RejectionPolicy.QUEUE_ASYNC, NotificationExecutor.REJECTION_POLICY);
+    }
+
+    @Test
+    public void fullPoolRejectsRightAway() throws Exception {
+        for (NotificationExecutor.RejectionPolicy policy : NotificationExecutor.RejectionPolicy.values()) {
+            NotificationExecutor executor = new NotificationExecutor(1, 1, 1, NotificationExecutor.Backend.PLATFORM, policy);
+            CountDownLatch release = new CountDownLatch(1);
+            saturate(executor, release);
+            long start = System.currentTimeMillis();
+            try {
+                executor.submit(() -> { });
+                fail("the notification should have been rejected");
+            } catch (RejectedExecutionException e) {
+                assertTrue(System.currentTimeMillis() - start < TimeUnit.SECONDS.toMillis(1));
+                assertEquals(1, executor.getRejectedCount());
+            } finally {
+                release.countDown();
+            }
+        }
+    }
+
+    @Test
+    public void notificationThreadRunsTheTaskItselfWhenFull() throws Exception {
+        NotificationExecutor executor = new NotificationExecutor(1, 1, 1, NotificationExecutor.Backend.PLATFORM,
+                NotificationExecutor.RejectionPolicy.FAIL);
+        CountDownLatch queued = new CountDownLatch(1);
+        AtomicReference<Thread> submitter = new AtomicReference<>();
+        List<Thread> runners = new CopyOnWriteArrayList<>();
+        Future<?> first = executor.submit(() -> {
+            try {
+                queued.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            submitter.set(Thread.currentThread());
+            // the thread is still known as a notification thread once the first inline task is done
+            executor.submit(() -> runners.add(Thread.currentThread()));
+            executor.submit(() -> runners.add(Thread.currentThread()));
+        });
+        executor.submit(() -> { });
+        queued.countDown();
+        first.get(10, TimeUnit.SECONDS);
+        assertEquals(2, runners.size());
+        for (Thread runner : runners) {
+            assertEquals(submitter.get(), runner);
+        }
+        assertEquals(0, executor.getRejectedCount());
+    }
+
+    /**
+     * Keeps the only thread busy until released and fills the queue
+     */
+    private static void saturate(NotificationExecutor executor, CountDownLatch release) {
+        executor.submit(() -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        executor.submit(() -> { });
+    }
+}
@@ -0,0 +1,128 @@
+package org.jenkinsci.plugins.pipeline.githubstatusnotification;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.kohsuke.github.GHCommitState;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks what {@link NotificationOutbox} hands back after a restart
+ */
+public class NotificationOutboxTest {
+
+    private static final long MAX_JOURNAL_BYTES = 4096;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void undeliveredNotificationsAreReplayed() throws Exception {
+        File journal = new File(folder.getRoot(), "journal");
+        NotificationOutbox outbox = new NotificationOutbox(journal, MAX_JOURNAL_BYTES);
+        long first = outbox.accept(notification("Build started"));
+        long second = outbox.accept(notification("Tests running"));
+        long third = outbox.accept(notification("All tests are OK"));
+        outbox.complete(second);
+
+        Map<Long, GitHubStatusNotification> undelivered = new NotificationOutbox(journal, MAX_JOURNAL_BYTES).takeUndelivered();
+        assertEquals(Arrays.asList(first, third), new ArrayList<>(undelivered.keySet()));
+        GitHubStatusNotification replayed = undelivered.get(third);
+        assertEquals("p", replayed.getItemFullName());
+        assertEquals("dummy", replayed.getCredentialsId());
+        assertNull(replayed.getGitApiUrl());
+        assertEquals("acceptance-test-harness", replayed.getRepo());
+        assertEquals("0b5936eb903d439ac0c0bf84940d73128d5e9487", replayed.getSha());
+        assertEquals(GHCommitState.PENDING, replayed.getStatus());
+        assertEquals("All tests are OK", replayed.getDescription());
+        assertEquals("ATH Results", replayed.getContext());
+        assertTrue(replayed.isVerifyCommit());
+        assertEquals(1000, replayed.getCreatedAt());
+        assertTrue(replayed.isSkipIfUnchanged());
+    }
+
+    @Test
+    public void tornRecordIsDiscarded() throws Exception {
+        File journal = new File(folder.getRoot(), "journal");
+        NotificationOutbox outbox = new NotificationOutbox(journal, MAX_JOURNAL_BYTES);
+        long first = outbox.accept(notification("Build started"));
+        long length = journal.length();
+        outbox.accept(notification("Tests running"));
+        try (RandomAccessFile file = new RandomAccessFile(journal, "rw")) {
+            // the second record only partly reached the disk
+            file.setLength(length + 20);
+        }
+
+        NotificationOutbox restarted = new NotificationOutbox(journal, MAX_JOURNAL_BYTES);
+        assertEquals(Arrays.asList(first), new ArrayList<>(restarted.takeUndelivered().keySet()));
+        long next = restarted.accept(notification("All tests are OK"));
+        assertTrue(next > first);
+        assertEquals(2, new NotificationOutbox(journal, MAX_JOURNAL_BYTES).takeUndelivered().size());
+    }
+
+    @Test
+    public void recordWithWrongChecksumIsDiscarded() throws Exception {
+        File journal = new File(folder.getRoot(), "journal");
+        NotificationOutbox outbox = new NotificationOutbox(journal, MAX_JOURNAL_BYTES);
+        long first = outbox.accept(notification("Build started"));
+        long length = journal.length();
+        outbox.accept(notification("Tests running"));
+        try (RandomAccessFile file = new RandomAccessFile(journal, "rw")) {
+            // flip a byte in the payload of the second record
+            file.seek(length + 20);
+            int value = file.read();
+            file.seek(length + 20);
+            file.write(value ^ 0xff);
+        }
+
+        Map<Long, GitHubStatusNotification> undelivered = new NotificationOutbox(journal, MAX_JOURNAL_BYTES).takeUndelivered();
+        assertEquals(Arrays.asList(first), new ArrayList<>(undelivered.keySet()));
+    }
+
+    @Test
+    public void journalIsCompactedOnceTooLarge() throws Exception {
+        File journal = new File(folder.getRoot(), "journal");
+        NotificationOutbox outbox = new NotificationOutbox(journal, MAX_JOURNAL_BYTES);
+        long kept = outbox.accept(notification("Build started"));
+        for (int i = 0; i < 100; i++) {
+            outbox.complete(outbox.accept(notification("Tests running " + i)));
+            assertTrue(journal.length() < 2 * MAX_JOURNAL_BYTES);
+        }
+        assertEquals(1, outbox.getPendingCount());
+
+        Map<Long, GitHubStatusNotification> undelivered = new NotificationOutbox(journal, MAX_JOURNAL_BYTES).takeUndelivered();
+        assertEquals(Arrays.asList(kept), new ArrayList<>(undelivered.keySet()));
+        assertEquals("Build started", undelivered.get(kept).getDescription());
+    }
+
+    @Test
+    public void notificationsAcceptedBeforeTheReplayAreNotReplayed() throws Exception {
+        File journal = new File(folder.getRoot(), "journal");
+        long previous = new NotificationOutbox(journal, MAX_JOURNAL_BYTES).accept(notification("Build started"));
+
+        NotificationOutbox restarted = new NotificationOutbox(journal, MAX_JOURNAL_BYTES);
+        long accepted = restarted.accept(notification("Tests running"));
+        Map<Long, GitHubStatusNotification> undelivered = restarted.takeUndelivered();
+        assertEquals(Arrays.asList(previous), new ArrayList<>(undelivered.keySet()));
+        assertFalse(undelivered.containsKey(accepted));
+        // replayed only once
+        assertTrue(restarted.takeUndelivered().isEmpty());
+        assertEquals(2, restarted.getPendingCount());
+    }
+
+    private static GitHubStatusNotification notification(String description) {
+        return new GitHubStatusNotification("p", "dummy", null, null, "acceptance-test-harness",
+                "0b5936eb903d439ac0c0bf84940d73128d5e9487", GHCommitState.PENDING, description, "ATH Results",
+                "http://www.cloudbees.com", true, 1000, true);
+    }
+}
@@ -0,0 +1,87 @@
+package org.jenkinsci.plugins.pipeline.githubstatusnotification;
+
+import org.junit.Test;
+import org.kohsuke.github.GHRateLimit;
+
+import java.net.Proxy;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks how {@link RateLimitScheduler} paces requests according to the budget left
+ */
+public class RateLimitSchedulerTest {
+
+    private static final GitHubClientCache.Key KEY = new GitHubClientCache.Key("bot", "fingerprint",
+            "https://api.github.com", Proxy.NO_PROXY);
+
+    @Test
+    public void requestsAreSentRightAwayWithPlentyOfBudget() {
+        RateLimitScheduler scheduler = new RateLimitScheduler();
+        assertEquals(0, scheduler.tryAcquire(KEY, false, System.currentTimeMillis()));
+        observe(scheduler, 4000, 30);
+        for (int i = 0; i < 10; i++) {
+            assertEquals(0, scheduler.tryAcquire(KEY, true, System.currentTimeMillis()));
+        }
+        assertEquals(3990, scheduler.getRemaining("bot", "https://api.github.com"));
+    }
+
+    @Test
+    public void lowBudgetSpreadsRequestsUntilTheReset() {
+        RateLimitScheduler scheduler = new RateLimitScheduler();
+        observe(scheduler, 300, 30);
+        long now = System.currentTimeMillis();
+        assertEquals(0, scheduler.tryAcquire(KEY, false, now));
+        long delay = scheduler.tryAcquire(KEY, false, now);
+        // the next slot is about 30 minutes / 300 requests away
+        assertTrue(delay > TimeUnit.SECONDS.toMillis(5) && delay <= TimeUnit.SECONDS.toMillis(6));
+        assertEquals(299, scheduler.getRemaining("bot", "https://api.github.com"));
+    }
+
+    @Test
+    public void lowPriorityRequestsAreShedWhenAlmostExhausted() {
+        RateLimitScheduler scheduler = new RateLimitScheduler();
+        observe(scheduler, 50, 30);
+        assertEquals(RateLimitScheduler.SHED, scheduler.tryAcquire(KEY, true, System.currentTimeMillis()));
+        assertEquals(1, scheduler.getShedCount());
+        assertEquals(50, scheduler.getRemaining("bot", "https://api.github.com"));
+    }
+
+    @Test
+    public void exhaustedBudgetWaitsForTheReset() {
+        RateLimitScheduler scheduler = new RateLimitScheduler();
+        observe(scheduler, 0, 30);
+        long delay = scheduler.tryAcquire(KEY, false, System.currentTimeMillis());
+        // never longer than the maximum wait
+        assertTrue(delay > 0 && delay <= TimeUnit.SECONDS.toMillis(RateLimitScheduler.MAX_WAIT_SECONDS));
+        assertEquals(0, scheduler.getRemaining("bot", "https://api.github.com"));
+    }
+
+    @Test
+    public void requestWaitingForTooLongIsLetThrough() {
+        RateLimitScheduler scheduler = new RateLimitScheduler();
+        observe(scheduler, 0, 30);
+        long waitingSince = System.currentTimeMillis() - TimeUnit.SECONDS.toMillis(RateLimitScheduler.MAX_WAIT_SECONDS);
+        assertEquals(0, scheduler.tryAcquire(KEY, false, waitingSince));
+    }
+
+    @Test
+    public void budgetIsForgottenOnceTheLimitResets() {
+        RateLimitScheduler scheduler = new RateLimitScheduler();
+        GHRateLimit rateLimit = new GHRateLimit();
+        rateLimit.remaining = 0;
+        rateLimit.reset = new Date(System.currentTimeMillis() - 1000);
+        scheduler.observe(KEY, rateLimit);
+        assertEquals(0, scheduler.tryAcquire(KEY, false, System.currentTimeMillis()));
+    }
+
+    private static void observe(RateLimitScheduler scheduler, int remaining, int resetMinutes) {
+        GHRateLimit rateLimit = new GHRateLimit();
+        rateLimit.remaining = remaining;
+        rateLimit.reset = new Date(System.currentTimeMillis() + TimeUnit.MINUTES.toMillis(resetMinutes));
+        scheduler.observe(KEY, rateLimit);
+    }
+}
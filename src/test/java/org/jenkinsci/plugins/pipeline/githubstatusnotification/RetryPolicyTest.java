@@ -0,0 +1,117 @@
+package org.jenkinsci.plugins.pipeline.githubstatusnotification;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks how {@link RetryPolicy} waits for GitHub without holding threads
+ */
+public class RetryPolicyTest {
+
+    @Test
+    public void exhaustedRateLimitWaitsForTheReset() throws Exception {
+        long reset = TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis()) + 600;
+        try {
+            RetryPolicy.RATE_LIMIT_HANDLER.onError(new IOException("API rate limit exceeded"),
+                    connection(Collections.singletonMap("X-RateLimit-Reset", Long.toString(reset))));
+            fail("the call should have been paced");
+        } catch (RetryPolicy.PacedException e) {
+            long delay = e.getDelayMillis();
+            assertTrue(String.valueOf(delay), delay > TimeUnit.SECONDS.toMillis(590) && delay <= TimeUnit.SECONDS.toMillis(600));
+        }
+    }
+
+    @Test
+    public void exhaustedRateLimitWithoutResetWaitsForTheDefaultDelay() throws Exception {
+        try {
+            RetryPolicy.RATE_LIMIT_HANDLER.onError(new IOException("API rate limit exceeded"),
+                    connection(Collections.<String, String>emptyMap()));
+            fail("the call should have been paced");
+        } catch (RetryPolicy.PacedException e) {
+            assertEquals(TimeUnit.SECONDS.toMillis(RetryPolicy.DEFAULT_RETRY_AFTER_SECONDS), e.getDelayMillis());
+        }
+    }
+
+    @Test
+    public void pacedCallGivesUpAtTheDeadline() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        long start = System.currentTimeMillis();
+        CompletableFuture<Void> result = new RetryPolicy(3, 1).executeAsync(() -> {
+            calls.incrementAndGet();
+            throw new RetryPolicy.PacedException(100);
+        }, null, RUNNER);
+        try {
+            result.get(10, TimeUnit.SECONDS);
+            fail("the call should have given up");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof RetryPolicy.PacedException);
+        }
+        assertTrue(calls.get() > 1);
+        assertTrue(System.currentTimeMillis() - start < TimeUnit.SECONDS.toMillis(2));
+    }
+
+    @Test
+    public void pacedCallEndingAfterTheDeadlineFailsRightAway() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        CompletableFuture<Void> result = new RetryPolicy(3, 60).executeAsync(() -> {
+            calls.incrementAndGet();
+            throw new RetryPolicy.PacedException(TimeUnit.HOURS.toMillis(1));
+        }, null, RUNNER);
+        try {
+            result.get(10, TimeUnit.SECONDS);
+            fail("the call should have given up");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof RetryPolicy.PacedException);
+        }
+        assertEquals(1, calls.get());
+    }
+
+    private static final RetryPolicy.Runner RUNNER = new RetryPolicy.Runner() {
+        @Override
+        public <V> CompletableFuture<V> run(Callable<V> body) {
+            CompletableFuture<V> result = new CompletableFuture<>();
+            try {
+                result.complete(body.call());
+            } catch (Exception e) {
+                result.completeExceptionally(e);
+            }
+            return result;
+        }
+    };
+
+    private static HttpURLConnection connection(Map<String, String> headers) throws IOException {
+        return new HttpURLConnection(new URL("https://api.github.com/repos/jenkinsci/acceptance-test-harness")) {
+            @Override
+            public String getHeaderField(String name) {
+                return headers.get(name);
+            }
+
+            @Override
+            public void disconnect() {
+            }
+
+            @Override
+            public boolean usingProxy() {
+                return false;
+            }
+
+            @Override
+            public void connect() {
+            }
+        };
+    }
+}
@@ -0,0 +1,74 @@
+package org.jenkinsci.plugins.pipeline.githubstatusnotification;
+
+import org.junit.Test;
+
+import java.net.Proxy;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the pacing of statuses by {@link WriteRateLimiter}
+ */
+public class WriteRateLimiterTest {
+
+    private static final GitHubClientCache.Key KEY = new GitHubClientCache.Key("bot", "fingerprint",
+            "https://api.github.com", Proxy.NO_PROXY);
+
+    @Test
+    public void statusesAreNotPacedUntilGitHubLimitsThem() {
+        WriteRateLimiter limiter = new WriteRateLimiter(0, 10);
+        for (int i = 0; i < 100; i++) {
+            assertEquals(0, limiter.tryAcquire(KEY, System.currentTimeMillis()));
+        }
+        assertEquals(0, limiter.getDelayedCount());
+    }
+
+    @Test
+    public void configuredRateIsAppliedOnceTheBurstIsUsed() {
+        WriteRateLimiter limiter = new WriteRateLimiter(60, 10);
+        for (int i = 0; i < 10; i++) {
+            assertEquals(0, limiter.tryAcquire(KEY, System.currentTimeMillis()));
+        }
+        long delay = limiter.tryAcquire(KEY, System.currentTimeMillis());
+        assertTrue(delay > 0 && delay <= 1000);
+        assertEquals(1, limiter.getDelayedCount());
+        assertEquals(0, limiter.tryAcquire(new GitHubClientCache.Key("other", "other", "https://api.github.com",
+                Proxy.NO_PROXY), System.currentTimeMillis()));
+    }
+
+    @Test
+    public void secondaryRateLimitPausesTheToken() throws Exception {
+        WriteRateLimiter limiter = new WriteRateLimiter(0, 10);
+        limiter.onLimited(KEY, 300);
+        long delay = limiter.tryAcquire(KEY, System.currentTimeMillis());
+        assertTrue(delay > 0 && delay <= 300);
+        Thread.sleep(delay);
+        // the first status after the pause goes straight, the next one at the lowered rate
+        assertEquals(0, limiter.tryAcquire(KEY, System.currentTimeMillis()));
+        assertTrue(limiter.tryAcquire(KEY, System.currentTimeMillis()) > 1000);
+        assertEquals(1, limiter.getLimitedCount());
+    }
+
+    @Test
+    public void tokenIsNoLongerPacedOnceRecovered() {
+        WriteRateLimiter limiter = new WriteRateLimiter(0, 10);
+        limiter.onLimited(KEY, 0);
+        assertEquals(0, limiter.tryAcquire(KEY, System.currentTimeMillis()));
+        for (int i = 0; i < 10; i++) {
+            limiter.onSuccess(KEY);
+        }
+        for (int i = 0; i < 20; i++) {
+            assertEquals(0, limiter.tryAcquire(KEY, System.currentTimeMillis()));
+        }
+    }
+
+    @Test
+    public void statusWaitingForTooLongIsLetThrough() {
+        WriteRateLimiter limiter = new WriteRateLimiter(0, 10);
+        limiter.onLimited(KEY, TimeUnit.MINUTES.toMillis(10));
+        long waitingSince = System.currentTimeMillis() - TimeUnit.SECONDS.toMillis(WriteRateLimiter.MAX_WAIT_SECONDS);
+        assertEquals(0, limiter.tryAcquire(KEY, waitingSince));
+    }
+}